@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.Revision;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how resolving an alternative list scales with the number of
+ * refs, the length of the list and the kind of specs in it, on both the
+ * CLI and the JGit client.
+ *
+ * Each list has its only match in the last position, so every spec is
+ * evaluated.  Run with
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java [-Dexec.args="-p refs=50000"]
+ * </pre>
+ * The GC profiler is always on, so allocations per call are reported next
+ * to the latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AlternativeBuildChooserBenchmark {
+	@Param({"10", "1000", "50000"})
+	public int refs;
+
+	@Param({"1", "5", "20"})
+	public int specs;
+
+	@Param({"literal", "wildcard", "tag", "sha1", "mixed"})
+	public String mix;
+
+	@Param({"git", "jgit"})
+	public String client;
+
+	private SyntheticRepository repo;
+	private GitClient git;
+	private List<SpecMatcher> matchers;
+	private AlternativeResolver resolver;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		repo = SyntheticRepository.create(refs);
+		git = repo.getClient(client);
+		matchers = new ArrayList<SpecMatcher>();
+		for (int i = 0; i < specs - 1; i++) {
+			matchers.add(new SpecMatcher(miss(kind(i), i)));
+		}
+		matchers.add(new SpecMatcher(hit(kind(specs - 1))));
+		resolver = new AlternativeResolver(Diagnostics.OFF);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		repo.delete();
+	}
+
+	@Benchmark
+	public Revision findFirst() throws Exception {
+		Revision r = resolver.findFirst(matchers, new RefIndex(git));
+		if (r == null) throw new IllegalStateException("no match for " + matchers);
+		return r;
+	}
+
+	private String kind(int i) {
+		if (!mix.equals("mixed")) return mix;
+		String[] kinds = {"literal", "wildcard", "tag", "sha1"};
+		return kinds[i % kinds.length];
+	}
+
+	private static String miss(String kind, int i) {
+		if (kind.equals("literal")) return "missing-" + i;
+		if (kind.equals("wildcard")) return "origin/feature/missing-" + i + "-*";
+		if (kind.equals("tag")) return "v9." + i;
+		return String.format("deadbeef%02x", i);
+	}
+
+	private String hit(String kind) {
+		if (kind.equals("literal")) return "develop";
+		if (kind.equals("wildcard")) return "origin/release/r-*";
+		if (kind.equals("tag")) return "v1." + (repo.tags - 1);
+		return repo.commits.get(0).substring(0, 12);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			.parent(new CommandLineOptions(args))
+			.include(AlternativeBuildChooserBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build()).run();
+	}
+}
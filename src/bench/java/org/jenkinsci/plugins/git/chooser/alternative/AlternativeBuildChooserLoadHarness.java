@@ -0,0 +1,255 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.TaskListener;
+import hudson.plugins.git.*;
+import hudson.plugins.git.extensions.GitSCMExtension;
+import hudson.plugins.git.extensions.impl.DisableRemotePoll;
+import hudson.tools.ToolProperty;
+import hudson.util.StreamTaskListener;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.JGitTool;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Simulates a fleet of jobs polling generated repositories through the
+ * chooser, while pushes move branches and are announced as notifyCommit
+ * would, and reports throughput, poll latency, git processes and the
+ * controller's CPU and heap.
+ *
+ * Not part of the normal build; run with
+ * <pre>
+ * mvn -Pbenchmark test -Dtest=AlternativeBuildChooserLoadHarness [-Dload.jobs=500 ...]
+ * </pre>
+ * The knobs are the system properties load.jobs (200), load.repos (10),
+ * load.refs (2000), load.threads (16), load.seconds (60), load.pushes
+ * per second (2) and load.client ("git" or "jgit").  The chooser's own
+ * switches, e.g. its parallel mode, are system properties as well.
+ *
+ * With the git client, git runs through a wrapper script that counts its
+ * invocations, so the report includes the git processes per poll.
+ */
+public class AlternativeBuildChooserLoadHarness extends HudsonTestCase {
+	private final int jobs = Integer.getInteger("load.jobs", 200);
+	private final int repos = Integer.getInteger("load.repos", 10);
+	private final int refs = Integer.getInteger("load.refs", 2000);
+	private final int threads = Integer.getInteger("load.threads", 16);
+	private final int seconds = Integer.getInteger("load.seconds", 60);
+	private final int pushes = Integer.getInteger("load.pushes", 2);
+	private final String client = System.getProperty("load.client", "git");
+
+	private final List<SyntheticRepository> origins = new ArrayList<SyntheticRepository>();
+	private File gitCalls;
+
+	public void testLoad() throws Exception {
+		String gitTool = setUpGitTool();
+		for (int i = 0; i < repos; i++) {
+			origins.add(SyntheticRepository.createOrigin(refs));
+		}
+		try {
+			List<FreeStyleProject> projects = createProjects(gitTool);
+			buildAll(projects);
+			run(projects);
+		} finally {
+			for (SyntheticRepository origin : origins) {
+				origin.delete();
+			}
+		}
+	}
+
+	/**
+	 * Installs a git that counts its invocations, unless JGit is used.
+	 */
+	private String setUpGitTool() throws IOException, InterruptedException {
+		if (client.equals("jgit")) return JGitTool.MAGIC_EXENAME;
+		File dir = createTmpDir();
+		gitCalls = new File(dir, "calls");
+		File wrapper = new File(dir, "counting-git");
+		Writer w = new OutputStreamWriter(new FileOutputStream(wrapper), "UTF-8");
+		try {
+			w.write("#!/bin/sh\nprintf x >> '" + gitCalls.getAbsolutePath() + "'\nexec git \"$@\"\n");
+		} finally {
+			w.close();
+		}
+		if (!wrapper.setExecutable(true)) throw new IOException("cannot make " + wrapper + " executable");
+		GitTool tool = new GitTool("counting", wrapper.getAbsolutePath(), Collections.<ToolProperty<?>>emptyList());
+		hudson.getDescriptorByType(GitTool.DescriptorImpl.class).setInstallations(tool);
+		return tool.getName();
+	}
+
+	private List<FreeStyleProject> createProjects(String gitTool) throws Exception {
+		List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+		for (int i = 0; i < jobs; i++) {
+			SyntheticRepository origin = origins.get(i % repos);
+			List<BranchSpec> specs;
+			if (i % 2 == 0) {
+				specs = Arrays.asList(new BranchSpec("missing-" + i), new BranchSpec("release/r-*"), new BranchSpec("develop"));
+			} else {
+				specs = Arrays.asList(new BranchSpec("v9." + i), new BranchSpec("feature/f-0000*"), new BranchSpec("master"));
+			}
+			GitSCM scm = new GitSCM(
+				Collections.singletonList(new UserRemoteConfig(origin.dir.getAbsolutePath(), "origin", "", null)),
+				specs, false, Collections.<SubmoduleConfig>emptyList(), null, gitTool,
+				Collections.<GitSCMExtension>emptyList());
+			scm.getExtensions().add(new DisableRemotePoll());
+			AlternativeBuildChooser chooser = new AlternativeBuildChooser();
+			chooser.gitSCM = scm;
+			scm.setBuildChooser(chooser);
+			FreeStyleProject project = createFreeStyleProject("load-" + i);
+			project.setScm(scm);
+			projects.add(project);
+		}
+		return projects;
+	}
+
+	/**
+	 * Builds every job once, so that each has a workspace to poll.
+	 */
+	private void buildAll(List<FreeStyleProject> projects) throws Exception {
+		List<Future<?>> builds = new ArrayList<Future<?>>();
+		for (FreeStyleProject project : projects) {
+			builds.add(project.scheduleBuild2(0));
+		}
+		for (Future<?> build : builds) {
+			build.get();
+		}
+	}
+
+	private void run(final List<FreeStyleProject> projects) throws Exception {
+		final AtomicBoolean stop = new AtomicBoolean();
+		final List<long[]> latencies = new ArrayList<long[]>();
+		final TaskListener listener = StreamTaskListener.fromStderr();
+		ExecutorService pool = Executors.newFixedThreadPool(threads + 2);
+
+		final long[] peakHeap = new long[1];
+		pool.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+				while (!stop.get()) {
+					peakHeap[0] = Math.max(peakHeap[0], memory.getHeapMemoryUsage().getUsed());
+					Thread.sleep(100);
+				}
+				return null;
+			}
+		});
+		pool.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				Random random = new Random(1);
+				while (!stop.get()) {
+					SyntheticRepository origin = origins.get(random.nextInt(origins.size()));
+					String branch = origin.branch(random.nextInt(origin.branches));
+					origin.push(branch, random.nextInt(SyntheticRepository.COMMITS));
+					URIish uri = new URIish(origin.dir.getAbsolutePath());
+					for (GitStatus.Listener l : hudson.getExtensionList(GitStatus.Listener.class)) {
+						l.onNotifyCommit(uri, branch);
+					}
+					Thread.sleep(1000 / Math.max(pushes, 1));
+				}
+				return null;
+			}
+		});
+
+		long cpuBefore = getProcessCpuTime();
+		long gcBefore = getGcCount();
+		long callsBefore = getGitCalls();
+		long started = System.nanoTime();
+		List<Future<Void>> pollers = new ArrayList<Future<Void>>();
+		for (int t = 0; t < threads; t++) {
+			final long[] own = new long[1 << 16];
+			synchronized (latencies) {
+				latencies.add(own);
+			}
+			final int seed = t;
+			pollers.add(pool.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					Random random = new Random(seed);
+					int n = 0;
+					while (!stop.get() && n < own.length - 1) {
+						FreeStyleProject project = projects.get(random.nextInt(projects.size()));
+						// Jenkins never polls a job twice at once
+						synchronized (project) {
+							long t0 = System.nanoTime();
+							project.poll(listener);
+							own[++n] = System.nanoTime() - t0;
+						}
+					}
+					own[0] = n;
+					return null;
+				}
+			}));
+		}
+		Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+		stop.set(true);
+		for (Future<Void> poller : pollers) {
+			poller.get();
+		}
+		long elapsed = System.nanoTime() - started;
+		pool.shutdownNow();
+
+		long cpu = cpuBefore < 0 ? -1 : getProcessCpuTime() - cpuBefore;
+		long calls = callsBefore < 0 ? -1 : getGitCalls() - callsBefore;
+		report(latencies, elapsed, cpu, getGcCount() - gcBefore, calls, peakHeap[0]);
+	}
+
+	private void report(List<long[]> perThread, long elapsed, long cpu, long gcs, long calls, long peakHeap) {
+		int total = 0;
+		for (long[] own : perThread) total += (int) own[0];
+		long[] all = new long[total];
+		int i = 0;
+		for (long[] own : perThread) {
+			System.arraycopy(own, 1, all, i, (int) own[0]);
+			i += (int) own[0];
+		}
+		Arrays.sort(all);
+		double secs = elapsed / 1e9;
+		PrintStream out = System.out;
+		out.printf("jobs=%d repos=%d refs=%d threads=%d client=%s%n", jobs, repos, refs, threads, client);
+		out.printf("polls: %d in %.1f s, %.1f/s%n", total, secs, total / secs);
+		if (total > 0) {
+			out.printf("poll latency ms: p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+				ms(all, 0.5), ms(all, 0.9), ms(all, 0.99), all[total - 1] / 1e6);
+		}
+		if (calls >= 0) {
+			out.printf("git processes: %d, %.2f per poll%n", calls, total == 0 ? 0 : (double) calls / total);
+		}
+		if (cpu >= 0) {
+			out.printf("controller CPU: %.1f s, %.0f%% of one core%n", cpu / 1e9, 100 * cpu / (double) elapsed);
+		}
+		out.printf("heap: peak %d MB, %d collections%n", peakHeap >> 20, gcs);
+		out.println(ChooserMetrics.get());
+	}
+
+	private static double ms(long[] sorted, double q) {
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1)] / 1e6;
+	}
+
+	/**
+	 * Returns the number of git processes started so far, or -1 if they
+	 * are not counted.
+	 */
+	private long getGitCalls() {
+		return gitCalls == null ? -1 : gitCalls.length();
+	}
+
+	private static long getProcessCpuTime() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(gc.getCollectionCount(), 0);
+		}
+		return count;
+	}
+}
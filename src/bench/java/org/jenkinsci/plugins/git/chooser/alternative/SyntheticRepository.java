@@ -0,0 +1,128 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.EnvVars;
+import hudson.Util;
+import hudson.model.TaskListener;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A generated repository with a large number of remote branches and tags,
+ * for benchmarking.
+ *
+ * Only a handful of commits are created; the refs are written straight to
+ * packed-refs and point at those commits in turn, so that even 50k refs
+ * are set up in a moment.  The remote branches are "origin/master",
+ * "origin/develop", "origin/feature/f-NNNNN" and "origin/release/r-NNNNN";
+ * the tags are "v1.N".  A repository to clone from has the same branches
+ * as local branches instead.
+ */
+final class SyntheticRepository {
+	static final int COMMITS = 8;
+
+	final File dir;
+	final int branches;
+	final int tags;
+	/** Where the branches go, e.g. "refs/remotes/origin/". */
+	final String branchPrefix;
+	/** SHA1s of the commits, oldest first. */
+	final List<String> commits = new ArrayList<String>();
+
+	private SyntheticRepository(File dir, int branches, int tags, String branchPrefix) {
+		this.dir = dir;
+		this.branches = branches;
+		this.tags = tags;
+		this.branchPrefix = branchPrefix;
+	}
+
+	/**
+	 * Creates a repository with about the given number of refs, split
+	 * evenly between remote branches and tags.
+	 */
+	static SyntheticRepository create(int refs) throws IOException, InterruptedException {
+		return create(refs, "refs/remotes/origin/");
+	}
+
+	/**
+	 * Creates a repository to clone from, with about the given number of
+	 * refs split evenly between local branches and tags.
+	 */
+	static SyntheticRepository createOrigin(int refs) throws IOException, InterruptedException {
+		return create(refs, "refs/heads/");
+	}
+
+	private static SyntheticRepository create(int refs, String branchPrefix) throws IOException, InterruptedException {
+		File dir = Util.createTempDir();
+		SyntheticRepository repo = new SyntheticRepository(dir, Math.max(2, refs / 2), Math.max(1, refs / 2), branchPrefix);
+		repo.init();
+		return repo;
+	}
+
+	/**
+	 * Returns the name of the i-th branch, without the prefix.
+	 */
+	String branch(int i) {
+		if (i == 0) return "master";
+		if (i == 1) return "develop";
+		String kind = (i % 2 == 0) ? "feature/f-" : "release/r-";
+		return String.format("%s%05d", kind, i);
+	}
+
+	/**
+	 * Moves a branch to one of the commits, as a push would, by writing a
+	 * loose ref that takes precedence over packed-refs.
+	 */
+	void push(String branch, int commit) throws IOException {
+		File ref = new File(dir, ".git/" + branchPrefix + branch);
+		ref.getParentFile().mkdirs();
+		write(ref, commits.get(commit % COMMITS) + "\n");
+	}
+
+	GitClient getClient(String exe) throws IOException, InterruptedException {
+		return Git.with(TaskListener.NULL, new EnvVars()).in(dir).using(exe).getClient();
+	}
+
+	void delete() throws IOException, InterruptedException {
+		Util.deleteRecursive(dir);
+	}
+
+	private void init() throws IOException, InterruptedException {
+		GitClient git = getClient("jgit");
+		git.init();
+		PersonIdent ident = new PersonIdent("John Doe", "john@doe.com");
+		for (int i = 0; i < COMMITS; i++) {
+			write(new File(dir, "file"), "commit " + i + "\n");
+			git.add("file");
+			git.commit("Commit number " + i, ident, ident);
+			commits.add(git.revParse("HEAD").name());
+		}
+
+		SortedMap<String, String> refs = new TreeMap<String, String>();
+		refs.put(branchPrefix + branch(0), commits.get(COMMITS - 1));
+		refs.put(branchPrefix + branch(1), commits.get(COMMITS - 2));
+		for (int i = 2; i < branches; i++) {
+			refs.put(branchPrefix + branch(i), commits.get(i % COMMITS));
+		}
+		for (int i = 0; i < tags; i++) {
+			refs.put("refs/tags/v1." + i, commits.get(i % COMMITS));
+		}
+		StringBuilder packed = new StringBuilder("# pack-refs with: peeled \n");
+		for (Map.Entry<String, String> e : refs.entrySet()) {
+			packed.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+		}
+		write(new File(dir, ".git/packed-refs"), packed.toString());
+	}
+
+	private static void write(File f, String content) throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+		try {
+			w.write(content);
+		} finally {
+			w.close();
+		}
+	}
+}
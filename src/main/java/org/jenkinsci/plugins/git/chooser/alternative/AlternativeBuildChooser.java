@@ -2,11 +2,14 @@ package org.jenkinsci.plugins.git.chooser.alternative;
 
 import hudson.Extension;
 import hudson.EnvVars;
+import hudson.Util;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import hudson.plugins.git.*;
+import hudson.plugins.git.util.Build;
 import hudson.plugins.git.util.BuildData;
 import hudson.plugins.git.util.BuildChooser;
 import hudson.plugins.git.util.BuildChooserContext;
@@ -15,18 +18,121 @@ import org.eclipse.jgit.lib.ObjectId;
 import org.jenkinsci.plugins.gitclient.GitClient;
 
 import java.io.IOException;
-import java.text.MessageFormat;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A build chooser that treats the configured branches as a list of
  * alternatives.
  */
 public class AlternativeBuildChooser extends BuildChooser {
+	/**
+	 * Resolve the whole alternative list on the node holding the workspace,
+	 * in one remoting call, rather than calling git from the controller.
+	 * The node always resolves the list from the start: incremental polling
+	 * and {@link #PARALLEL} are not used, nor are the shared ref snapshots.
+	 * Several candidates are resolved on the controller as usual, and the
+	 * event driven mode still keeps its choice without asking the node.
+	 */
+	public static boolean RESOLVE_ON_NODE = Boolean.getBoolean(AlternativeBuildChooser.class.getName() + ".resolveOnNode");
+
+	/**
+	 * Start the git calls needed by the alternative list at the same time
+	 * rather than one after the other; see
+	 * {@link AlternativeResolver#findFirstParallel}.
+	 */
+	public static boolean PARALLEL = Boolean.getBoolean(AlternativeBuildChooser.class.getName() + ".parallel");
+
+	/** A variable reference as understood by {@link EnvVars#expand}. */
+	private static final Pattern VARIABLE = Pattern.compile("\\$([A-Za-z0-9_]+|\\{([A-Za-z0-9_.]+)\\})");
+
+	private boolean incrementalPolling;
+	private boolean eventDriven;
+	private boolean skipContained;
+	private int maxCandidates;
+	private WildcardPolicy wildcardPolicy;
+
+	private transient EventView view;
+	private transient List<String> compiledNames;
+	private transient List<SpecMatcher> compiled;
+
 	@DataBoundConstructor
 	public AlternativeBuildChooser() {
 	}
 
+	public boolean isIncrementalPolling() {
+		return incrementalPolling;
+	}
+
+	/**
+	 * When polling, only evaluate the specs up to the one that chose the
+	 * last built revision while it still matches; see
+	 * {@link AlternativeResolver#findIncremental}.
+	 */
+	@DataBoundSetter
+	public void setIncrementalPolling(boolean incrementalPolling) {
+		this.incrementalPolling = incrementalPolling;
+	}
+
+	public boolean isEventDriven() {
+		return eventDriven;
+	}
+
+	/**
+	 * When polling, keep the last choice for as long as the push
+	 * notifications received since don't touch a branch that could change
+	 * it; see {@link EventView}.
+	 */
+	@DataBoundSetter
+	public void setEventDriven(boolean eventDriven) {
+		this.eventDriven = eventDriven;
+	}
+
+	public boolean isSkipContained() {
+		return skipContained;
+	}
+
+	/**
+	 * When polling, leave out a revision that a previously built commit
+	 * already contains; see {@link ContainedIn}.
+	 */
+	@DataBoundSetter
+	public void setSkipContained(boolean skipContained) {
+		this.skipContained = skipContained;
+	}
+
+	public WildcardPolicy getWildcardPolicy() {
+		return wildcardPolicy == null ? WildcardPolicy.FIRST : wildcardPolicy;
+	}
+
+	/**
+	 * Which branch a wildcard spec picks when it matches several; the first
+	 * by name unless set.
+	 */
+	@DataBoundSetter
+	public void setWildcardPolicy(WildcardPolicy wildcardPolicy) {
+		this.wildcardPolicy = wildcardPolicy;
+	}
+
+	/**
+	 * Returns the number of matching alternatives to return as candidates,
+	 * -1 for all of them.
+	 */
+	public int getMaxCandidates() {
+		return maxCandidates == 0 ? 1 : maxCandidates;
+	}
+
+	/**
+	 * Return the revisions of the first so many matching alternatives, -1
+	 * for all of them, instead of only the first.  GitSCM builds the first
+	 * and schedules another build for the others.
+	 */
+	@DataBoundSetter
+	public void setMaxCandidates(int maxCandidates) {
+		this.maxCandidates = maxCandidates < 0 ? -1 : maxCandidates;
+	}
+
 	/**
 	 * Determines which revision to build
 	 */
@@ -38,75 +144,216 @@ public class AlternativeBuildChooser extends BuildChooser {
 	                                                  BuildData data,
 	                                                  BuildChooserContext context)
 	                            throws GitException, IOException, InterruptedException {
-		verbose(listener, "AlternativeBuildChooser.getCandidateRevisions()");
+		Diagnostics diag = Diagnostics.of(listener, GitSCM.VERBOSE);
+		diag.trace("AlternativeBuildChooser.getCandidateRevisions()");
+		CallStats stats = new CallStats();
 		EnvVars env = null;
-		if (!isPollCall) try {
-			env = context.actOnBuild(new BuildChooserContext.ContextCallable<Run<?,?>, EnvVars>() {
-				public EnvVars invoke(Run<?,?> run, hudson.remoting.VirtualChannel channel) throws IOException, InterruptedException {
-					return run.getEnvironment();
+		Set<String> variables = getReferencedVariables(gitSCM.getBranches());
+		if (!isPollCall && !variables.isEmpty()) {
+			long t = stats.start();
+			try {
+				env = context.actOnBuild(new BuildVariables(variables));
+			} catch (InterruptedException x) {
+				diag.trace("interrupted getting build variables: {0}", x);
+			} finally {
+				stats.end(CallStats.Phase.ENVIRONMENT, t);
+			}
+		}
+		List<String> names = expand(gitSCM.getBranches(), env);
+		EventView view = eventDriven ? getView() : null;
+		boolean reused = false;
+		long generation = RefUpdateLog.getGeneration();
+		Revision r;
+		List<Revision> candidates = null;
+		try {
+			if (getMaxCandidates() != 1) {
+				RefIndex refs = openRefIndex(git, compile(names), diag, stats);
+				candidates = new AlternativeResolver(diag, getWildcardPolicy()).findAll(compile(names), refs, getMaxCandidates());
+				r = candidates.isEmpty() ? null : candidates.get(0);
+				RefSnapshotStore.save(refs.getSnapshot());
+			} else if (isPollCall && view != null
+			    && view.isCurrent(names, compile(names), gitSCM.getUserRemoteConfigs(), diag)) {
+				diag.trace("No relevant ref updates since the last choice");
+				r = view.getRevision();
+				reused = true;
+				if (r != null) stats.found();
+			} else if (RESOLVE_ON_NODE) {
+				long t = stats.start();
+				try {
+					r = git.withRepository(new AlternativeResolver.OnNode(names, getWildcardPolicy(), listener, diag.isLogging()));
+					if (r != null) stats.found();
+				} finally {
+					stats.end(CallStats.Phase.ON_NODE, t);
 				}
-			});
-		} catch (InterruptedException x) {
-			verbose(listener, "interrupted getting build variables:"+x);
+			} else {
+				AlternativeResolver resolver = new AlternativeResolver(diag, getWildcardPolicy());
+				RefIndex refs = openRefIndex(git, compile(names), diag, stats);
+				if (isPollCall && incrementalPolling && data != null) {
+					r = resolver.findIncremental(compile(names), refs, data.getLastBuiltRevision());
+				} else if (PARALLEL) {
+					r = resolver.findFirstParallel(compile(names), refs);
+				} else {
+					r = resolver.findFirst(compile(names), refs);
+				}
+				RefSnapshotStore.save(refs.getSnapshot());
+			}
+			if (view != null && candidates == null && !reused) view.update(names, r, stats.getMatched(), generation);
+			if (isPollCall && skipContained && data != null) {
+				if (candidates != null) {
+					candidates = uncontained(git, candidates, data, diag, stats);
+				} else if (r != null && uncontained(git, Collections.singletonList(r), data, diag, stats).isEmpty()) {
+					r = null;
+				}
+			}
+		} finally {
+			stats.finish();
+			ChooserMetrics.get().record(stats);
 		}
-		Collection<Branch> remoteBranches = git.getRemoteBranches();
-		for (BranchSpec s : gitSCM.getBranches()) {
-			BranchSpec spec = (env == null ? s : new BranchSpec(env.expand(s.getName())));
-			verbose(listener, "Checking branch spec: {0}", spec);
-			Revision r = findRevision(spec, git, remoteBranches, listener, data, context);
-			if (r != null) return Collections.singletonList(r);
+		listener.getLogger().println("Alternative build chooser: " + stats.summary());
+		if (candidates != null) return unbuilt(candidates, data);
+		if (r == null) return Collections.emptyList();
+		return Collections.singletonList(r);
+	}
+
+	/**
+	 * Leaves out the candidates that have been built already, so that the
+	 * builds scheduled for the remaining ones work through the list.  If all
+	 * have been built only the first is returned, as the git plugin
+	 * schedules another build whenever it gets more than one.
+	 */
+	private static List<Revision> unbuilt(List<Revision> candidates, BuildData data) {
+		if (data == null) return candidates;
+		List<Revision> unbuilt = new ArrayList<Revision>(candidates.size());
+		for (Revision r : candidates) {
+			if (!data.hasBeenBuilt(r.getSha1())) unbuilt.add(r);
 		}
-		verbose(listener, "No branch specs matched");
-		return Collections.emptyList();
-	}
-
-	private Revision findRevision(BranchSpec spec, GitClient git,
-	                              Collection<Branch> remoteBranches,
-	                              TaskListener listener,
-	                              BuildData data, BuildChooserContext context)
-	                 throws GitException, IOException, InterruptedException {
-		Revision r = null;
-		ObjectId sha1;
-		if (spec.getName().matches("[0-9a-f]{6,40}")) {
-			// might be a SHA1; strange usage, but we'll allow it
-			try {
-				sha1 = git.revParse(spec.getName());
-				r = new Revision(sha1);
-				r.getBranches().add(new Branch("detached", sha1));
-				verbose(listener, "Found SHA1: {0}", r);
-			} catch (GitException x) {
-				// ignore and look for a branch instead
+		return unbuilt.isEmpty() && !candidates.isEmpty() ? candidates.subList(0, 1) : unbuilt;
+	}
+
+	/**
+	 * Leaves out the revisions that have not been built themselves but are
+	 * contained in a commit that was.
+	 */
+	private static List<Revision> uncontained(GitClient git, List<Revision> revisions, BuildData data, Diagnostics diag, CallStats stats)
+	                              throws IOException, InterruptedException {
+		Set<ObjectId> built = new LinkedHashSet<ObjectId>();
+		Revision last = data.getLastBuiltRevision();
+		if (last != null) built.add(last.getSha1());
+		for (Build b : data.getBuildsByBranchName().values()) {
+			built.add(b.getSHA1());
+		}
+		List<Revision> kept = new ArrayList<Revision>(revisions.size());
+		for (Revision r : revisions) {
+			if (data.hasBeenBuilt(r.getSha1()) || !ContainedIn.isContained(git, r.getSha1(), built, stats)) {
+				kept.add(r);
+			} else {
+				diag.trace("Contained in a built commit: {0}", r);
 			}
-		} else if (!spec.getName().matches(".*[/*].*")) {
-			// might be a tag name
-			Set<String> tags = git.getTagNames(spec.getName());
-			if (!tags.isEmpty()) {
-				sha1 = git.revParse(tags.iterator().next());
-				r = new Revision(sha1);
-				r.getBranches().add(new Branch(spec.getName(), sha1));
-				verbose(listener, "Found tag: {0}", r);
+		}
+		return kept;
+	}
+
+	/**
+	 * Expands the branch specs with the build variables, if any.
+	 */
+	private static List<String> expand(List<BranchSpec> specs, EnvVars env) {
+		List<String> names = new ArrayList<String>(specs.size());
+		for (BranchSpec s : specs) {
+			names.add(env == null ? s.getName() : env.expand(s.getName()));
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the names of the variables the branch specs refer to.
+	 */
+	static Set<String> getReferencedVariables(List<BranchSpec> specs) {
+		Set<String> names = new HashSet<String>();
+		for (BranchSpec s : specs) {
+			Matcher m = VARIABLE.matcher(s.getName());
+			while (m.find()) {
+				names.add(m.group(2) != null ? m.group(2) : m.group(1));
 			}
 		}
-		if (r != null) return r;
-
-		// get all matching branches
-		List<Branch> branches = spec.filterMatchingBranches(remoteBranches);
-		if (!branches.isEmpty()) {
-			Branch b = branches.get(0);
-			r = new Revision(b.getSHA1());
-			r.getBranches().add(b);
-			verbose(listener, "Found branch: {0}", r);
+		return names;
+	}
+
+	/**
+	 * Opens the ref index for the workspace repository, sharing the snapshot
+	 * of earlier calls that saw the same remotes and ref state.  The remotes
+	 * are identified by name, URL and refspec, as these decide which
+	 * remote-tracking branches a fetch writes.
+	 */
+	private RefIndex openRefIndex(GitClient git, List<SpecMatcher> specs, Diagnostics diag, CallStats stats)
+	                 throws IOException, InterruptedException {
+		String fingerprint;
+		long t = stats.start();
+		try {
+			fingerprint = git.withRepository(new RefSnapshotCache.Fingerprint());
+		} finally {
+			stats.end(CallStats.Phase.FINGERPRINT, t);
+		}
+		if (fingerprint == null) return new RefIndex(git, new RefSnapshot(), stats);
+		StringBuilder urls = new StringBuilder();
+		List<String> remotes = new ArrayList<String>();
+		for (UserRemoteConfig remote : gitSCM.getUserRemoteConfigs()) {
+			String name = Util.fixEmpty(remote.getName()) == null ? "origin" : remote.getName();
+			if (urls.length() > 0) urls.append(' ');
+			urls.append(name).append('=').append(remote.getUrl());
+			String refspec = Util.fixEmptyAndTrim(remote.getRefspec());
+			if (refspec != null) urls.append(' ').append(refspec);
+			remotes.add(name);
+		}
+		diag.trace("Ref state fingerprint: {0}", fingerprint);
+		SortedSet<String> scope = SpecMatcher.getBranchQueries(specs, remotes);
+		if (remotes.isEmpty() || scope.contains("")) scope = null;
+		diag.trace("Branches to list: {0}", scope == null ? "all" : scope);
+		return new RefIndex(git, RefSnapshotCache.get(urls.toString(), fingerprint, scope, stats), stats);
+	}
+
+	private synchronized EventView getView() {
+		if (view == null) view = new EventView();
+		return view;
+	}
+
+	/**
+	 * Compiles the expanded branch specs.  The result is kept for as long as
+	 * the names don't change.
+	 */
+	private synchronized List<SpecMatcher> compile(List<String> names) {
+		if (!names.equals(compiledNames)) {
+			List<SpecMatcher> matchers = new ArrayList<SpecMatcher>(names.size());
+			for (String name : names) {
+				matchers.add(new SpecMatcher(name));
+			}
+			compiled = matchers;
+			compiledNames = names;
 		}
-		return r;
+		return compiled;
 	}
 
 	/**
-	 * Write the message to the listener only when the verbose mode is on.
+	 * Gets the values of some of the build's environment variables, so that
+	 * only those are sent back rather than the whole environment.
 	 */
-	private void verbose(TaskListener listener, String format, Object... args) {
-		if (GitSCM.VERBOSE) {
-			listener.getLogger().println(MessageFormat.format(format,args));
+	private static final class BuildVariables implements BuildChooserContext.ContextCallable<Run<?,?>, EnvVars> {
+		private final Set<String> names;
+
+		BuildVariables(Set<String> names) {
+			this.names = names;
 		}
+
+		public EnvVars invoke(Run<?,?> run, hudson.remoting.VirtualChannel channel) throws IOException, InterruptedException {
+			EnvVars all = run.getEnvironment();
+			EnvVars env = new EnvVars();
+			for (String name : names) {
+				String value = all.get(name);
+				if (value != null) env.put(name, value);
+			}
+			return env;
+		}
+
+		private static final long serialVersionUID = 1L;
 	}
 
 	@Extension
@@ -116,6 +363,13 @@ public class AlternativeBuildChooser extends BuildChooser {
 		public String getDisplayName() {
 			return "Alternative";
 		}
+
+		/**
+		 * The most recent trace lines, if tracing to the buffer is enabled.
+		 */
+		public List<String> getRecentTrace() {
+			return Diagnostics.getBuffer();
+		}
 	}
 
 }
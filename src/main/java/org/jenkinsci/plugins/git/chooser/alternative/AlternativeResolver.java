@@ -0,0 +1,279 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import hudson.plugins.git.Branch;
+import hudson.plugins.git.GitException;
+import hudson.plugins.git.Revision;
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.gitclient.JGitTool;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks the alternative list in order and resolves the first spec that
+ * names a SHA1, a tag or a remote branch.
+ */
+final class AlternativeResolver {
+	/** Maximum number of git calls started by {@link #findFirstParallel} at once. */
+	static int PARALLELISM = Integer.getInteger(AlternativeResolver.class.getName() + ".parallelism", 4);
+
+	private static ExecutorService executor;
+
+	private final Diagnostics diag;
+	private final WildcardPolicy policy;
+
+	AlternativeResolver(Diagnostics diag) {
+		this(diag, WildcardPolicy.FIRST);
+	}
+
+	AlternativeResolver(Diagnostics diag, WildcardPolicy policy) {
+		this.diag = diag;
+		this.policy = policy;
+	}
+
+	/**
+	 * Returns the revision of the first matching spec, or null if none
+	 * matches.
+	 */
+	Revision findFirst(List<SpecMatcher> specs, RefIndex refs)
+	         throws GitException, InterruptedException {
+		refs.expect(specs);
+		return findFrom(specs, 0, refs);
+	}
+
+	/**
+	 * Returns the revisions of the first matching specs, at most max of them
+	 * (or all if max is negative), in the order of the specs.  Specs that
+	 * resolve to the same commit give one revision with the branches of all
+	 * of them.
+	 */
+	List<Revision> findAll(List<SpecMatcher> specs, RefIndex refs, int max)
+	               throws GitException, InterruptedException {
+		refs.expect(specs);
+		Map<ObjectId, Revision> found = new LinkedHashMap<ObjectId, Revision>();
+		for (int i = 0; i < specs.size(); i++) {
+			SpecMatcher spec = specs.get(i);
+			diag.trace("Checking branch spec: {0}", spec);
+			Revision r = findRevision(spec, refs);
+			if (r == null) continue;
+			if (found.isEmpty()) refs.getStats().matched(i, specs.size());
+			Revision same = found.get(r.getSha1());
+			if (same != null) {
+				for (Branch b : r.getBranches()) {
+					if (!same.containsBranchName(b.getName())) same.getBranches().add(b);
+				}
+				continue;
+			}
+			found.put(r.getSha1(), r);
+			if (max >= 0 && found.size() >= max) break;
+		}
+		if (found.isEmpty()) diag.trace("No branch specs matched");
+		return new ArrayList<Revision>(found.values());
+	}
+
+	/**
+	 * Like {@link #findFirst}, but the git calls the list may need are all
+	 * started at once on a bounded executor, so that the time spent in git
+	 * is that of the slowest call rather than their sum.  The specs are still
+	 * checked in order, each waiting for the calls it depends on, and the
+	 * calls still running once a spec has matched are cancelled.
+	 */
+	Revision findFirstParallel(List<SpecMatcher> specs, RefIndex refs)
+	         throws GitException, InterruptedException {
+		refs.expect(specs);
+		List<Future<?>> calls = refs.prefetch(getExecutor());
+		try {
+			return findFrom(specs, 0, refs);
+		} finally {
+			for (Future<?> call : calls) {
+				call.cancel(true);
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			final AtomicInteger threads = new AtomicInteger();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "AlternativeBuildChooser git call " + threads.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		return executor;
+	}
+
+	/**
+	 * Like {@link #findFirst}, but starting from the revision built last.
+	 *
+	 * The spec that chose the last built revision is found from its branch
+	 * names.  Only the specs up to it are evaluated; the rest of the list is
+	 * only looked at once the spec no longer matches.  A literal spec looks
+	 * up the previously built branch by its exact name, so that it stays on
+	 * the remote it was built from.  A wildcard spec is matched again, as
+	 * the {@link WildcardPolicy} may now rank another branch first.
+	 *
+	 * @param lastBuilt the last built revision, or null
+	 */
+	Revision findIncremental(List<SpecMatcher> specs, RefIndex refs, Revision lastBuilt)
+	         throws GitException, InterruptedException {
+		int winner = lastBuilt == null ? -1 : indexOf(specs, lastBuilt);
+		if (winner < 0) return findFirst(specs, refs);
+		diag.trace("Last built revision came from spec {0}: {1}", winner, lastBuilt);
+
+		refs.expect(specs.subList(0, winner + 1));
+		for (int i = 0; i < winner; i++) {
+			SpecMatcher spec = specs.get(i);
+			diag.trace("Checking branch spec: {0}", spec);
+			Revision r = findRevision(spec, refs);
+			if (r != null) {
+				refs.getStats().matched(i, specs.size());
+				return r;
+			}
+		}
+
+		SpecMatcher spec = specs.get(winner);
+		diag.trace("Checking last built branch spec: {0}", spec);
+		Revision r = spec.isWildcard() ? findRevision(spec, refs) : findSha1OrTag(spec, refs);
+		if (r == null && !spec.isWildcard()) {
+			for (Branch built : lastBuilt.getBranches()) {
+				if (!spec.matchesBranch(built)) continue;
+				Branch b = refs.getBranch(built.getName());
+				if (b != null) {
+					r = new Revision(b.getSHA1());
+					r.getBranches().add(b);
+					diag.trace("Found last built branch: {0}", r);
+					break;
+				}
+			}
+		}
+		if (r != null) {
+			refs.getStats().matched(winner, specs.size());
+			return r;
+		}
+
+		refs.expect(specs);
+		return findFrom(specs, winner, refs);
+	}
+
+	/**
+	 * Returns the revision of the first matching spec from the given index
+	 * on, or null if none matches.
+	 */
+	private Revision findFrom(List<SpecMatcher> specs, int from, RefIndex refs)
+	         throws GitException, InterruptedException {
+		for (int i = from; i < specs.size(); i++) {
+			SpecMatcher spec = specs.get(i);
+			diag.trace("Checking branch spec: {0}", spec);
+			Revision r = findRevision(spec, refs);
+			if (r != null) {
+				refs.getStats().matched(i, specs.size());
+				return r;
+			}
+		}
+		diag.trace("No branch specs matched");
+		return null;
+	}
+
+	/**
+	 * Returns the index of the first spec that names one of the revision's
+	 * branches, or -1.
+	 */
+	private static int indexOf(List<SpecMatcher> specs, Revision revision) {
+		for (int i = 0; i < specs.size(); i++) {
+			for (Branch b : revision.getBranches()) {
+				if (specs.get(i).matchesBranch(b)) return i;
+			}
+		}
+		return -1;
+	}
+
+	Revision findRevision(SpecMatcher spec, RefIndex refs)
+	         throws GitException, InterruptedException {
+		Revision r = findSha1OrTag(spec, refs);
+		if (r != null) return r;
+
+		// get the first matching branch
+		Branch b = spec.findBranch(refs, policy);
+		if (b != null) {
+			r = new Revision(b.getSHA1());
+			r.getBranches().add(b);
+			diag.trace("Found branch: {0}", r);
+		}
+		return r;
+	}
+
+	private Revision findSha1OrTag(SpecMatcher spec, RefIndex refs)
+	         throws GitException, InterruptedException {
+		Revision r = null;
+		ObjectId sha1;
+		if (spec.isSha1()) {
+			// might be a SHA1; strange usage, but we'll allow it
+			sha1 = refs.resolveSha1(spec.getName());
+			if (sha1 != null) {
+				r = new Revision(sha1);
+				r.getBranches().add(new Branch("detached", sha1));
+				diag.trace("Found SHA1: {0}", r);
+			}
+			// otherwise look for a branch instead
+		} else if (spec.isTag()) {
+			// might be a tag name
+			if (refs.hasTag(spec.getName())) {
+				sha1 = refs.resolveTag(spec.getName());
+				r = new Revision(sha1);
+				r.getBranches().add(new Branch(spec.getName(), sha1));
+				diag.trace("Found tag: {0}", r);
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Resolves the whole alternative list on the node that holds the
+	 * repository, in a single remoting call.  The refs are read in-process
+	 * through JGit there, so no git process is started either.
+	 */
+	static final class OnNode implements RepositoryCallback<Revision> {
+		private final List<String> specs;
+		private final WildcardPolicy policy;
+		private final TaskListener listener;
+		private final boolean verbose;
+
+		/**
+		 * @param specs the branch specs, already expanded
+		 * @param verbose whether to trace to the listener
+		 */
+		OnNode(List<String> specs, WildcardPolicy policy, TaskListener listener, boolean verbose) {
+			this.specs = new ArrayList<String>(specs);
+			this.policy = policy;
+			this.listener = listener;
+			this.verbose = verbose;
+		}
+
+		public Revision invoke(Repository repo, VirtualChannel channel) throws IOException, InterruptedException {
+			GitClient git = Git.with(listener, new EnvVars()).in(repo.getWorkTree()).using(JGitTool.MAGIC_EXENAME).getClient();
+			List<SpecMatcher> matchers = new ArrayList<SpecMatcher>(specs.size());
+			for (String name : specs) {
+				matchers.add(new SpecMatcher(name));
+			}
+			Diagnostics diag = new Diagnostics(listener, verbose, false);
+			return new AlternativeResolver(diag, policy).findFirst(matchers, new RefIndex(git));
+		}
+
+		private static final long serialVersionUID = 1L;
+	}
+}
@@ -0,0 +1,146 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of one {@link AlternativeBuildChooser#getCandidateRevisions}
+ * call went: the time spent in each phase, the number of calls into git,
+ * which spec matched and whether the ref snapshot came from the cache.
+ *
+ * A phase is timed with
+ * <pre>
+ * long t = stats.start();
+ * try { ... } finally { stats.end(Phase.TAGS, t); }
+ * </pre>
+ * Whatever time is not attributed to a phase is spent matching.
+ */
+final class CallStats {
+	enum Phase {
+		ENVIRONMENT("env", false),
+		FINGERPRINT("fingerprint", true),
+		BRANCHES("branches", true),
+		TAGS("tags", true),
+		RESOLVE("resolve", true),
+		ON_NODE("node", true);
+
+		final String label;
+		/** Whether each timed section of the phase is a call into git. */
+		final boolean git;
+
+		Phase(String label, boolean git) {
+			this.label = label;
+			this.git = git;
+		}
+	}
+
+	private final long started = System.nanoTime();
+	private final long[] nanos = new long[Phase.values().length];
+	private long total = -1;
+	private int gitCalls;
+	private boolean found;
+	private int matched = -1;
+	private int specs;
+	/** null when no cache was consulted */
+	private Boolean cacheHit;
+
+	long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Phases may run on several threads at once, see
+	 * {@link RefIndex#prefetch}.
+	 */
+	synchronized void end(Phase phase, long start) {
+		nanos[phase.ordinal()] += System.nanoTime() - start;
+		if (phase.git) gitCalls++;
+	}
+
+	/**
+	 * Records that a spec matched, without knowing which.
+	 */
+	void found() {
+		this.found = true;
+	}
+
+	void matched(int index, int specs) {
+		this.found = true;
+		this.matched = index;
+		this.specs = specs;
+	}
+
+	void cacheHit(boolean hit) {
+		this.cacheHit = hit;
+	}
+
+	/**
+	 * Marks the end of the call.
+	 */
+	void finish() {
+		total = System.nanoTime() - started;
+	}
+
+	synchronized long getNanos(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	long getTotalNanos() {
+		return total;
+	}
+
+	/**
+	 * Time not attributed to any phase.
+	 */
+	synchronized long getMatchNanos() {
+		long rest = total;
+		for (long n : nanos) rest -= n;
+		return Math.max(rest, 0);
+	}
+
+	synchronized int getGitCalls() {
+		return gitCalls;
+	}
+
+	boolean isFound() {
+		return found;
+	}
+
+	/**
+	 * Index of the matching spec, or -1 if none matched or it is not known.
+	 */
+	int getMatched() {
+		return matched;
+	}
+
+	Boolean getCacheHit() {
+		return cacheHit;
+	}
+
+	/**
+	 * One line for the build log, e.g.
+	 * "spec 2/5 matched in 84 ms (branches 70, tags 0, match 3), 2 git calls, cache miss".
+	 */
+	synchronized String summary() {
+		StringBuilder b = new StringBuilder();
+		if (matched >= 0) {
+			b.append("spec ").append(matched + 1).append('/').append(specs).append(" matched");
+		} else if (found) {
+			b.append("a spec matched");
+		} else {
+			b.append("no spec matched");
+		}
+		b.append(" in ").append(millis(total)).append(" ms (");
+		for (Phase phase : Phase.values()) {
+			long n = nanos[phase.ordinal()];
+			if (n > 0) b.append(phase.label).append(' ').append(millis(n)).append(", ");
+		}
+		b.append("match ").append(millis(getMatchNanos())).append("), ");
+		b.append(gitCalls).append(gitCalls == 1 ? " git call" : " git calls");
+		if (cacheHit != null) b.append(cacheHit ? ", cache hit" : ", cache miss");
+		return b.toString();
+	}
+
+	private static long millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+}
@@ -0,0 +1,224 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Controller-wide timers and histograms over all
+ * {@link AlternativeBuildChooser#getCandidateRevisions} calls, fed from
+ * their {@link CallStats}.  Shown, and exported through the remote API,
+ * by {@link ChooserMetricsAction}.
+ */
+@ExportedBean
+public final class ChooserMetrics {
+	private static final ChooserMetrics INSTANCE = new ChooserMetrics();
+
+	private final Timer total = new Timer();
+	private final Timer match = new Timer();
+	private final Map<CallStats.Phase, Timer> phases = new EnumMap<CallStats.Phase, Timer>(CallStats.Phase.class);
+	private final Histogram gitCalls = new Histogram();
+	private final Histogram matchedSpec = new Histogram();
+	private long unmatched;
+	private long cacheHits;
+	private long cacheMisses;
+
+	private ChooserMetrics() {
+		for (CallStats.Phase phase : CallStats.Phase.values()) {
+			phases.put(phase, new Timer());
+		}
+	}
+
+	static ChooserMetrics get() {
+		return INSTANCE;
+	}
+
+	synchronized void record(CallStats stats) {
+		total.updateNanos(stats.getTotalNanos());
+		match.updateNanos(stats.getMatchNanos());
+		for (CallStats.Phase phase : CallStats.Phase.values()) {
+			long n = stats.getNanos(phase);
+			if (n > 0) phases.get(phase).updateNanos(n);
+		}
+		gitCalls.update(stats.getGitCalls());
+		if (stats.getMatched() >= 0) {
+			matchedSpec.update(stats.getMatched());
+		} else if (!stats.isFound()) {
+			unmatched++;
+		}
+		Boolean hit = stats.getCacheHit();
+		if (hit != null) {
+			if (hit) cacheHits++; else cacheMisses++;
+		}
+	}
+
+	@Exported
+	public synchronized Timer getTotal() {
+		return total.copy();
+	}
+
+	/**
+	 * Time spent matching specs, outside of any git call.
+	 */
+	@Exported
+	public synchronized Timer getMatch() {
+		return match.copy();
+	}
+
+	/**
+	 * Timers of the calls that went through the phase, by phase name
+	 * ("env", "fingerprint", "branches", "tags", "resolve", "node").
+	 */
+	@Exported
+	public synchronized Map<String, Timer> getPhases() {
+		Map<String, Timer> copy = new LinkedHashMap<String, Timer>();
+		for (Map.Entry<CallStats.Phase, Timer> e : phases.entrySet()) {
+			copy.put(e.getKey().label, e.getValue().copy());
+		}
+		return copy;
+	}
+
+	/**
+	 * Number of git calls per chooser call.
+	 */
+	@Exported
+	public synchronized Histogram getGitCalls() {
+		return gitCalls.copy();
+	}
+
+	/**
+	 * Zero-based index of the spec that matched.
+	 */
+	@Exported
+	public synchronized Histogram getMatchedSpec() {
+		return matchedSpec.copy();
+	}
+
+	@Exported
+	public synchronized long getUnmatched() {
+		return unmatched;
+	}
+
+	@Exported
+	public synchronized long getCacheHits() {
+		return cacheHits;
+	}
+
+	@Exported
+	public synchronized long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder b = new StringBuilder();
+		b.append("total: ").append(total).append('\n');
+		for (Map.Entry<CallStats.Phase, Timer> e : phases.entrySet()) {
+			b.append(e.getKey().label).append(": ").append(e.getValue()).append('\n');
+		}
+		b.append("match: ").append(match).append('\n');
+		b.append("git calls: ").append(gitCalls).append('\n');
+		b.append("matched spec: ").append(matchedSpec).append(", unmatched ").append(unmatched).append('\n');
+		b.append("cache: ").append(cacheHits).append(" hits, ").append(cacheMisses).append(" misses");
+		return b.toString();
+	}
+
+	/**
+	 * Distribution of non-negative values in power-of-two buckets: bucket 0
+	 * holds 0, bucket i holds [2^(i-1), 2^i).
+	 */
+	@ExportedBean(defaultVisibility = 2)
+	public static class Histogram {
+		final long[] buckets = new long[64];
+		long count;
+		long sum;
+		long max;
+
+		void update(long value) {
+			buckets[64 - Long.numberOfLeadingZeros(Math.max(value, 0))]++;
+			count++;
+			sum += value;
+			max = Math.max(max, value);
+		}
+
+		@Exported
+		public long getCount() {
+			return count;
+		}
+
+		@Exported
+		public long getMax() {
+			return max;
+		}
+
+		@Exported
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * Upper bound of the bucket holding the given quantile, e.g. 0.99.
+		 */
+		public long getQuantile(double q) {
+			long rank = (long) Math.ceil(q * count);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank && seen > 0) return Math.min(i == 0 ? 0 : (1L << i) - 1, max);
+			}
+			return max;
+		}
+
+		@Exported
+		public long getP50() {
+			return getQuantile(0.5);
+		}
+
+		@Exported
+		public long getP99() {
+			return getQuantile(0.99);
+		}
+
+		Histogram copy() {
+			Histogram h = new Histogram();
+			copyTo(h);
+			return h;
+		}
+
+		void copyTo(Histogram h) {
+			System.arraycopy(buckets, 0, h.buckets, 0, buckets.length);
+			h.count = count;
+			h.sum = sum;
+			h.max = max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d",
+				count, getMean(), getP50(), getP99(), max);
+		}
+	}
+
+	/**
+	 * A histogram of durations, kept in microseconds.
+	 */
+	public static final class Timer extends Histogram {
+		void updateNanos(long nanos) {
+			super.update(TimeUnit.NANOSECONDS.toMicros(nanos));
+		}
+
+		@Override
+		Timer copy() {
+			Timer t = new Timer();
+			copyTo(t);
+			return t;
+		}
+
+		@Override
+		public String toString() {
+			return super.toString() + " (us)";
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+
+/**
+ * Shows the {@link ChooserMetrics} to administrators at
+ * /alternative-chooser, and exports them at /alternative-chooser/api.
+ */
+@Extension
+public class ChooserMetricsAction implements RootAction {
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "Alternative build chooser";
+	}
+
+	public String getUrlName() {
+		return "alternative-chooser";
+	}
+
+	public ChooserMetrics getMetrics() {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		return ChooserMetrics.get();
+	}
+
+	public Api getApi() {
+		return new Api(getMetrics());
+	}
+}
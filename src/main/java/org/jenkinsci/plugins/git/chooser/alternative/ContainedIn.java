@@ -0,0 +1,144 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.GitException;
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Finds the first of a list of built commits that contains a commit, that
+ * is, has it as an ancestor.  Each history is walked back at most
+ * {@link #MAX_COMMITS} commits, and only until the commits are older than
+ * the commit looked for, give or take {@link #SLOP} for clock skew, so
+ * that a commit far back, or not there at all, costs a bounded walk.
+ *
+ * Returns for each built commit whether it contains the commit, or
+ * {@link #UNKNOWN} if it or its history could not be read (say a shallow
+ * clone or a pruned object) or was not looked at; null if the commit
+ * itself could not be read.
+ */
+final class ContainedIn implements RepositoryCallback<int[]> {
+	static final int UNKNOWN = -1;
+	static final int NOT_CONTAINED = 0;
+	static final int CONTAINED = 1;
+
+	/** How much older than the commit an ancestor may claim to be, in seconds. */
+	private static final int SLOP = 24 * 60 * 60;
+
+	/** How far back each built commit's history is searched. */
+	static int MAX_COMMITS = Integer.getInteger(ContainedIn.class.getName() + ".maxCommits", 10000);
+
+	private static final int CACHE_SIZE = 4096;
+
+	/** Answers per commit and built commit, as "commit built". */
+	private static final Map<String, Boolean> CACHE = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final ObjectId commit;
+	private final ObjectId[] built;
+	private final int maxCommits;
+
+	ContainedIn(ObjectId commit, ObjectId[] built, int maxCommits) {
+		this.commit = commit;
+		this.built = built;
+		this.maxCommits = maxCommits;
+	}
+
+	/**
+	 * Whether one of the built commits is known to contain the commit.
+	 * Answers are cached per pair of commits, so that only pairs not seen
+	 * before are walked.  Should the repository fail to answer, the commit
+	 * is not known to be contained, and the pair is asked about again on
+	 * the next call.
+	 */
+	static boolean isContained(GitClient git, ObjectId commit, Collection<ObjectId> built, CallStats stats)
+	               throws IOException, InterruptedException {
+		List<ObjectId> unknown = new ArrayList<ObjectId>();
+		synchronized (CACHE) {
+			for (ObjectId b : built) {
+				Boolean contained = CACHE.get(key(commit, b));
+				if (contained == null) unknown.add(b);
+				else if (contained) return true;
+			}
+		}
+		if (unknown.isEmpty()) return false;
+		int[] found;
+		long t = stats.start();
+		try {
+			found = git.withRepository(new ContainedIn(commit, unknown.toArray(new ObjectId[unknown.size()]), MAX_COMMITS));
+		} catch (GitException x) {
+			return false;
+		} catch (IOException x) {
+			return false;
+		} finally {
+			stats.end(CallStats.Phase.RESOLVE, t);
+		}
+		if (found == null) return false; // not fetched yet, ask again later
+		boolean contained = false;
+		synchronized (CACHE) {
+			for (int i = 0; i < found.length; i++) {
+				if (found[i] == UNKNOWN) continue; // unreadable, ask again later
+				CACHE.put(key(commit, unknown.get(i)), found[i] == CONTAINED);
+				if (found[i] == CONTAINED) contained = true;
+			}
+		}
+		return contained;
+	}
+
+	private static String key(ObjectId commit, ObjectId built) {
+		return commit.name() + ' ' + built.name();
+	}
+
+	public int[] invoke(Repository repo, VirtualChannel channel) throws IOException, InterruptedException {
+		RevWalk walk = new RevWalk(repo);
+		try {
+			RevCommit target;
+			try {
+				target = walk.parseCommit(commit);
+			} catch (IOException x) {
+				return null;
+			}
+			// the walk goes newest first, so it can stop once past the target's time
+			walk.setRevFilter(CommitTimeRevFilter.after((target.getCommitTime() - SLOP) * 1000L));
+			int[] found = new int[built.length];
+			Arrays.fill(found, UNKNOWN);
+			for (int i = 0; i < built.length; i++) {
+				walk.reset();
+				try {
+					walk.markStart(walk.parseCommit(built[i]));
+				} catch (IOException x) {
+					continue; // gone, or not a commit
+				}
+				int walked = 0;
+				try {
+					for (RevCommit c = walk.next(); c != null && walked < maxCommits; c = walk.next(), walked++) {
+						if (c == target) {
+							found[i] = CONTAINED;
+							return found;
+						}
+					}
+				} catch (IOException x) {
+					continue; // history cut short, e.g. a shallow clone
+				}
+				found[i] = NOT_CONTAINED;
+			}
+			return found;
+		} finally {
+			walk.release();
+		}
+	}
+
+	private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,123 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.model.TaskListener;
+
+import java.text.MessageFormat;
+import java.util.*;
+
+/**
+ * Trace of the chooser's decisions, written to the listener in verbose
+ * mode and/or kept in a bounded controller-wide ring buffer.
+ *
+ * The trace methods have fixed arities and check whether tracing is on
+ * before doing anything else, so a disabled trace costs neither a varargs
+ * array nor boxing nor formatting.  Entries in the ring buffer keep their
+ * arguments and are only formatted when read.
+ */
+final class Diagnostics {
+	/**
+	 * Also keep the trace of every call in the ring buffer, whatever the
+	 * verbose setting.
+	 */
+	static boolean TO_BUFFER = Boolean.getBoolean(Diagnostics.class.getName() + ".toBuffer");
+	static int BUFFER_SIZE = Integer.getInteger(Diagnostics.class.getName() + ".bufferSize", 512);
+
+	private static final Entry[] buffer = new Entry[Math.max(BUFFER_SIZE, 1)];
+	private static int next;
+
+	/** Traces nothing. */
+	static final Diagnostics OFF = new Diagnostics(null, false, false);
+
+	private final TaskListener listener;
+	private final boolean toLog;
+	private final boolean toBuffer;
+	private final boolean enabled;
+
+	Diagnostics(TaskListener listener, boolean toLog, boolean toBuffer) {
+		this.listener = listener;
+		this.toLog = toLog && listener != null;
+		this.toBuffer = toBuffer;
+		this.enabled = this.toLog || toBuffer;
+	}
+
+	/**
+	 * Traces to the listener in verbose mode, and to the buffer if so
+	 * configured.
+	 */
+	static Diagnostics of(TaskListener listener, boolean verbose) {
+		if (!verbose && !TO_BUFFER) return OFF;
+		return new Diagnostics(listener, verbose, TO_BUFFER);
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	boolean isLogging() {
+		return toLog;
+	}
+
+	void trace(String message) {
+		if (enabled) add(new Entry(message, null, null));
+	}
+
+	void trace(String format, Object arg) {
+		if (enabled) add(new Entry(format, arg, null));
+	}
+
+	void trace(String format, Object arg1, Object arg2) {
+		if (enabled) add(new Entry(format, arg1, arg2));
+	}
+
+	void trace(String format, int arg1, Object arg2) {
+		if (enabled) add(new Entry(format, arg1, arg2));
+	}
+
+	private void add(Entry e) {
+		if (toLog) {
+			listener.getLogger().println(e.format());
+		}
+		if (toBuffer) {
+			synchronized (buffer) {
+				buffer[next] = e;
+				next = (next + 1) % buffer.length;
+			}
+		}
+	}
+
+	/**
+	 * Returns the buffered trace, oldest first.
+	 */
+	static List<String> getBuffer() {
+		List<Entry> entries = new ArrayList<Entry>(buffer.length);
+		synchronized (buffer) {
+			for (int i = 0; i < buffer.length; i++) {
+				Entry e = buffer[(next + i) % buffer.length];
+				if (e != null) entries.add(e);
+			}
+		}
+		List<String> lines = new ArrayList<String>(entries.size());
+		for (Entry e : entries) {
+			lines.add(String.format("%tT.%<tL %s", e.time, e.format()));
+		}
+		return lines;
+	}
+
+	private static final class Entry {
+		final long time = System.currentTimeMillis();
+		final String format;
+		final Object arg1;
+		final Object arg2;
+
+		Entry(String format, Object arg1, Object arg2) {
+			this.format = format;
+			this.arg1 = arg1;
+			this.arg2 = arg2;
+		}
+
+		String format() {
+			if (arg1 == null && arg2 == null && format.indexOf('{') < 0) return format;
+			return MessageFormat.format(format, arg1, arg2);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.Branch;
+import hudson.plugins.git.Revision;
+import hudson.plugins.git.UserRemoteConfig;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last choice of one chooser, kept valid by the updates in the
+ * {@link RefUpdateLog} instead of enumerating the refs on every poll.
+ *
+ * The choice holds until an update touches a branch that one of the specs
+ * up to the matching one could pick.  Updates to branches further down the
+ * list cannot change the choice.  As hooks may be missing or lose events,
+ * a choice is also dropped after {@link #MAX_AGE} milliseconds.
+ */
+final class EventView {
+	static long MAX_AGE = Long.getLong(EventView.class.getName() + ".maxAge", TimeUnit.MINUTES.toMillis(30));
+
+	private List<String> names;
+	private Revision revision;
+	/** Index of the matching spec, -1 if none matched or not known. */
+	private int matched;
+	private long generation;
+	private long resolvedAt;
+
+	/**
+	 * Records the choice made for the given specs, based on the ref state at
+	 * the given {@link RefUpdateLog} generation.
+	 */
+	synchronized void update(List<String> names, Revision revision, int matched, long generation) {
+		this.names = names;
+		this.revision = revision;
+		this.matched = matched;
+		this.generation = generation;
+		this.resolvedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns whether the recorded choice still holds for the given specs.
+	 */
+	synchronized boolean isCurrent(List<String> names, List<SpecMatcher> specs,
+	                               List<UserRemoteConfig> remotes, Diagnostics diag) {
+		if (!names.equals(this.names)) return false;
+		if (System.currentTimeMillis() - resolvedAt > MAX_AGE) return false;
+		int last = matched >= 0 ? matched : specs.size() - 1;
+		long now = RefUpdateLog.getGeneration();
+		for (UserRemoteConfig remote : remotes) {
+			Set<String> changes = RefUpdateLog.getChangesSince(remote.getUrl(), generation);
+			if (changes == null) {
+				diag.trace("Unknown updates to {0}", remote.getUrl());
+				return false;
+			}
+			String remoteName = remote.getName() == null || remote.getName().length() == 0 ? "origin" : remote.getName();
+			for (String change : changes) {
+				for (int i = 0; i <= last; i++) {
+					if (affects(specs.get(i), remoteName, change)) {
+						diag.trace("Update of {0} affects spec {1}", change, specs.get(i));
+						return false;
+					}
+				}
+			}
+		}
+		generation = now;
+		return true;
+	}
+
+	synchronized Revision getRevision() {
+		return revision == null ? null : revision.clone();
+	}
+
+	/**
+	 * Whether an update of the given branch may change what the spec picks.
+	 * A SHA1 spec that did not match may match after any push.
+	 */
+	private static boolean affects(SpecMatcher spec, String remoteName, String branch) {
+		if (spec.isSha1()) return true;
+		if (spec.isTag() && (branch.equals(spec.getName()) || branch.equals("refs/tags/" + spec.getName()))) return true;
+		if (branch.startsWith("refs/heads/")) branch = branch.substring("refs/heads/".length());
+		return spec.matchesBranch(new Branch(remoteName + "/" + branch, ObjectId.zeroId()));
+	}
+}
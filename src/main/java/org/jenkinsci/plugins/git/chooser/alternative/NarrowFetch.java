@@ -0,0 +1,109 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitException;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.extensions.GitSCMExtension;
+import hudson.plugins.git.extensions.GitSCMExtensionDescriptor;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.FetchCommand;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.*;
+
+/**
+ * Fetches only the branches the configured branch specs can choose,
+ * instead of every branch of the remote: the branches named literally and,
+ * for wildcards, the directories holding their literal prefix.
+ *
+ * Literal names the remote doesn't have are left out, since fetching a
+ * missing ref fails the whole fetch.  That takes an ls-remote before
+ * each fetch, which only lists the refs, and is skipped when every spec
+ * is a wildcard.  The fetch is left alone if the job has several
+ * remotes, a custom refspec or variables in its specs, or if a spec can
+ * match anything.
+ */
+public class NarrowFetch extends GitSCMExtension {
+	@DataBoundConstructor
+	public NarrowFetch() {
+	}
+
+	@Override
+	public void decorateFetchCommand(GitSCM scm, GitClient git, TaskListener listener, FetchCommand cmd)
+	            throws IOException, InterruptedException, GitException {
+		List<UserRemoteConfig> remotes = scm.getUserRemoteConfigs();
+		if (remotes.size() != 1) return;
+		UserRemoteConfig remote = remotes.get(0);
+		String name = Util.fixEmpty(remote.getName()) == null ? "origin" : remote.getName();
+		String refspec = Util.fixEmptyAndTrim(remote.getRefspec());
+		if (refspec != null && !refspec.equals("+refs/heads/*:refs/remotes/" + name + "/*")) return;
+
+		List<SpecMatcher> specs = new ArrayList<SpecMatcher>();
+		for (BranchSpec spec : scm.getBranches()) {
+			if (spec.getName().indexOf('$') >= 0) return;
+			specs.add(new SpecMatcher(spec.getName()));
+		}
+		URIish url;
+		try {
+			url = new URIish(remote.getUrl());
+		} catch (URISyntaxException x) {
+			return;
+		}
+		Set<String> heads = Collections.emptySet();
+		if (namesBranch(specs, name)) heads = git.getHeadRev(remote.getUrl()).keySet();
+		List<RefSpec> refspecs = getRefSpecs(specs, name, heads);
+		if (refspecs == null) return;
+		listener.getLogger().println("Fetching only " + refspecs);
+		cmd.from(url, refspecs);
+	}
+
+	/**
+	 * Returns the refspecs to fetch the branches of the remote that the
+	 * specs can match, or null to fetch everything.
+	 *
+	 * @param heads the remote's branches, e.g. "refs/heads/master"
+	 */
+	static List<RefSpec> getRefSpecs(List<SpecMatcher> specs, String remote, Set<String> heads) {
+		String local = remote + '/';
+		List<RefSpec> refspecs = new ArrayList<RefSpec>();
+		for (String query : SpecMatcher.getBranchQueries(specs, Collections.singleton(remote))) {
+			if (query.length() == 0 || query.equals(local)) return null;
+			if (!query.startsWith(local)) continue; // another remote's branch
+			String branch = query.substring(local.length());
+			if (RefDatabaseListing.isDirectory(query)) {
+				refspecs.add(new RefSpec("+" + Constants.R_HEADS + branch + "*:" + Constants.R_REMOTES + query + "*"));
+			} else if (heads.contains(Constants.R_HEADS + branch)) {
+				refspecs.add(new RefSpec("+" + Constants.R_HEADS + branch + ":" + Constants.R_REMOTES + query));
+			}
+		}
+		return refspecs.isEmpty() ? null : refspecs;
+	}
+
+	/**
+	 * Whether a spec names a branch of the remote literally, so that the
+	 * remote's heads are needed to tell whether it can be fetched.
+	 */
+	static boolean namesBranch(List<SpecMatcher> specs, String remote) {
+		for (String query : SpecMatcher.getBranchQueries(specs, Collections.singleton(remote))) {
+			if (query.startsWith(remote + '/') && !RefDatabaseListing.isDirectory(query)) return true;
+		}
+		return false;
+	}
+
+	@Extension
+	public static class DescriptorImpl extends GitSCMExtensionDescriptor {
+		@Override
+		public String getDisplayName() {
+			return "Fetch only the branches the alternative list can choose";
+		}
+	}
+}
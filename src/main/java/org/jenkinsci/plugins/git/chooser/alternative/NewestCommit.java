@@ -0,0 +1,48 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Finds which of a list of commits has the most recent commit time, in one
+ * pass with a single {@link RevWalk}.  Returns its index in the list, the
+ * first one on a tie, or -1 if none of them could be read.
+ */
+final class NewestCommit implements RepositoryCallback<Integer> {
+	private final ObjectId[] commits;
+
+	NewestCommit(ObjectId[] commits) {
+		this.commits = commits;
+	}
+
+	public Integer invoke(Repository repo, VirtualChannel channel) throws IOException, InterruptedException {
+		RevWalk walk = new RevWalk(repo);
+		try {
+			int newest = -1;
+			int newestTime = Integer.MIN_VALUE;
+			for (int i = 0; i < commits.length; i++) {
+				int time;
+				try {
+					time = walk.parseCommit(commits[i]).getCommitTime();
+				} catch (IOException x) {
+					continue; // missing, or not a commit
+				}
+				if (time > newestTime) {
+					newest = i;
+					newestTime = time;
+				}
+			}
+			return newest;
+		} finally {
+			walk.release();
+		}
+	}
+
+	private static final long serialVersionUID = 1L;
+}
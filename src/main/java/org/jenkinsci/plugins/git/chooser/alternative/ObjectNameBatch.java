@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Resolves a batch of SHA1s and tags to commits in one pass over the
+ * repository, sharing a single {@link ObjectReader}.  Names that do not
+ * resolve to exactly one commit are simply left out of the result, so a
+ * miss costs a map lookup instead of a failed git process.
+ *
+ * SHA1s may be abbreviated; tags are given by their full ref name, e.g.
+ * "refs/tags/v1.0".  Annotated tags are peeled, as rev-parse
+ * "name^{commit}" would.
+ */
+final class ObjectNameBatch implements RepositoryCallback<HashMap<String, ObjectId>> {
+	private final List<String> sha1s;
+	private final List<String> tags;
+
+	ObjectNameBatch(Collection<String> sha1s, Collection<String> tags) {
+		this.sha1s = new ArrayList<String>(sha1s);
+		this.tags = new ArrayList<String>(tags);
+	}
+
+	public HashMap<String, ObjectId> invoke(Repository repo, VirtualChannel channel) throws IOException, InterruptedException {
+		HashMap<String, ObjectId> result = new HashMap<String, ObjectId>();
+		ObjectReader reader = repo.newObjectReader();
+		RevWalk walk = new RevWalk(reader);
+		try {
+			for (String name : sha1s) {
+				Collection<ObjectId> ids = reader.resolve(AbbreviatedObjectId.fromString(name));
+				if (ids.size() == 1) {
+					putCommit(result, walk, name, ids.iterator().next());
+				}
+			}
+			for (String name : tags) {
+				Ref ref = repo.getRef(name);
+				if (ref != null && ref.getName().startsWith(Constants.R_TAGS)) {
+					putCommit(result, walk, name, ref.getObjectId());
+				}
+			}
+		} finally {
+			walk.release();
+			reader.release();
+		}
+		return result;
+	}
+
+	private static void putCommit(Map<String, ObjectId> result, RevWalk walk, String name, ObjectId id) {
+		try {
+			result.put(name, walk.parseCommit(id).copy());
+		} catch (IOException x) {
+			// missing, or not a commit
+		}
+	}
+
+	private static final long serialVersionUID = 1L;
+}
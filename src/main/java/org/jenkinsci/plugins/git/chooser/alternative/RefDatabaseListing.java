@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Lists refs under a base such as "refs/remotes/" straight from the
+ * repository's packed and loose refs, without starting git.  The result
+ * is a {@link RefTable} of the names relative to the base and the objects
+ * the refs point to.
+ * Symbolic refs such as "origin/HEAD" are left out, as
+ * {@code git branch -r} shows them as aliases rather than branches.
+ *
+ * Each query, relative to the base, is either a directory ending with "/"
+ * (or "" for everything), whose refs are all listed, or the name of a
+ * single ref, which is looked up exactly.
+ */
+final class RefDatabaseListing implements RepositoryCallback<RefTable> {
+	private final String base;
+	private final List<String> queries;
+
+	RefDatabaseListing(String base) {
+		this(base, Collections.singleton(""));
+	}
+
+	RefDatabaseListing(String base, Collection<String> queries) {
+		this.base = base;
+		this.queries = new ArrayList<String>(queries);
+	}
+
+	public RefTable invoke(Repository repo, VirtualChannel channel) throws IOException, InterruptedException {
+		RefDatabase db = repo.getRefDatabase();
+		RefTable.Builder result = new RefTable.Builder();
+		for (String query : queries) {
+			if (isDirectory(query)) {
+				for (Map.Entry<String, Ref> e : db.getRefs(base + query).entrySet()) {
+					add(result, query, e.getKey(), e.getValue());
+				}
+			} else {
+				Ref ref = db.getRef(base + query);
+				if (ref != null && ref.getName().equals(base + query)) {
+					add(result, "", query, ref);
+				}
+			}
+		}
+		return result.build();
+	}
+
+	private static void add(RefTable.Builder result, String directory, String name, Ref ref) {
+		if (ref.isSymbolic() || ref.getObjectId() == null) return;
+		result.add(directory, name, ref.getObjectId());
+	}
+
+	static boolean isDirectory(String query) {
+		return query.length() == 0 || query.endsWith("/");
+	}
+
+	/**
+	 * Whether a name relative to the base is covered by one of the queries.
+	 */
+	static boolean matches(Collection<String> queries, String name) {
+		for (String query : queries) {
+			if (isDirectory(query) ? name.startsWith(query) : name.equals(query)) return true;
+		}
+		return false;
+	}
+
+	private static final long serialVersionUID = 1L;
+}
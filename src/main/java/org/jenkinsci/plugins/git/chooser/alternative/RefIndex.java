@@ -0,0 +1,312 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.Branch;
+import hudson.plugins.git.GitException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Snapshot of the remote branches and tags of a repository, taken once
+ * per {@link AlternativeBuildChooser#getCandidateRevisions} call so that
+ * every branch spec of the alternative list is matched in memory rather
+ * than with its own git invocations.
+ *
+ * Each part of the snapshot is only read from the repository when a spec
+ * first needs it, so the specs after the one that matches cost nothing.
+ * The data itself lives in a {@link RefSnapshot}, which may have been
+ * filled by an earlier call on the same ref state.
+ */
+final class RefIndex {
+	/**
+	 * List branches and tags with git rather than reading the ref database
+	 * directly; see {@link RefDatabaseListing}.
+	 */
+	static boolean NO_REF_DATABASE = Boolean.getBoolean(RefIndex.class.getName() + ".noRefDatabase");
+
+	/** Marks a name that git failed to resolve. */
+	private static final ObjectId UNRESOLVED = ObjectId.zeroId();
+
+	private final GitClient git;
+	private final RefSnapshot snapshot;
+	private final CallStats stats;
+
+	// SHA1s and tag refs to resolve together the first time one is needed
+	private final Set<String> pendingSha1s = new LinkedHashSet<String>();
+	private final Set<String> pendingTags = new LinkedHashSet<String>();
+
+	RefIndex(GitClient git) {
+		this(git, new RefSnapshot(), new CallStats());
+	}
+
+	RefIndex(GitClient git, RefSnapshot snapshot, CallStats stats) {
+		this.git = git;
+		this.snapshot = snapshot;
+		this.stats = stats;
+	}
+
+	RefIndex(GitClient git, Collection<Branch> branches, Set<String> tags) {
+		this(git);
+		snapshot.setBranches(RefTable.of(branches));
+		snapshot.setTags(tags);
+	}
+
+	CallStats getStats() {
+		return stats;
+	}
+
+	RefSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Registers the SHA1 and tag candidates of an alternative list, so that
+	 * they are all resolved in one batch when the first of them is needed.
+	 */
+	synchronized void expect(List<SpecMatcher> specs) {
+		for (SpecMatcher spec : specs) {
+			if (spec.isSha1()) {
+				if (snapshot.getResolved(spec.getName()) == null) pendingSha1s.add(spec.getName());
+			} else if (spec.isTag()) {
+				String ref = Constants.R_TAGS + spec.getName();
+				if (snapshot.getResolved(ref) == null) pendingTags.add(ref);
+			}
+		}
+	}
+
+	/**
+	 * Resolves the pending SHA1s and tags through one {@link ObjectNameBatch}.
+	 * Should the batch fail, the names are left to be rev-parsed one by one.
+	 */
+	private synchronized void resolvePending() throws InterruptedException {
+		if (pendingSha1s.isEmpty() && pendingTags.isEmpty()) return;
+		long t = stats.start();
+		try {
+			Map<String, ObjectId> found = git.withRepository(new ObjectNameBatch(pendingSha1s, pendingTags));
+			for (String name : pendingSha1s) {
+				ObjectId sha1 = found.get(name);
+				snapshot.putResolved(name, sha1 != null ? sha1 : UNRESOLVED);
+			}
+			for (String name : pendingTags) {
+				ObjectId sha1 = found.get(name);
+				snapshot.putResolved(name, sha1 != null ? sha1 : UNRESOLVED);
+			}
+		} catch (IOException x) {
+			// fall back to rev-parse
+		} catch (GitException x) {
+			// fall back to rev-parse
+		} finally {
+			stats.end(CallStats.Phase.RESOLVE, t);
+			pendingSha1s.clear();
+			pendingTags.clear();
+		}
+	}
+
+	/**
+	 * Resolves the pending names if the given one is among them.  Waits for
+	 * a batch that is already running.
+	 */
+	private synchronized void resolvePending(String name) throws InterruptedException {
+		if (pendingSha1s.contains(name) || pendingTags.contains(name)) resolvePending();
+	}
+
+	/**
+	 * Starts listing the branches and resolving the expected SHA1s and tags
+	 * on the executor, so that these git calls run at the same time rather
+	 * than one after the other.  Lookups that need their results wait for
+	 * them.
+	 *
+	 * @return the started calls, to be cancelled once they are not needed
+	 */
+	List<Future<?>> prefetch(ExecutorService executor) {
+		List<Future<?>> calls = new ArrayList<Future<?>>(2);
+		calls.add(executor.submit(new Callable<Void>() {
+			public Void call() throws InterruptedException {
+				getBranches();
+				return null;
+			}
+		}));
+		synchronized (this) {
+			if (pendingSha1s.isEmpty() && pendingTags.isEmpty()) return calls;
+		}
+		calls.add(executor.submit(new Callable<Void>() {
+			public Void call() throws InterruptedException {
+				resolvePending();
+				return null;
+			}
+		}));
+		return calls;
+	}
+
+	/**
+	 * Returns the remote branches, listing them if this has not been done.
+	 */
+	RefTable getBranches() throws GitException, InterruptedException {
+		RefTable branches = snapshot.getBranches();
+		if (branches == null) {
+			long t = stats.start();
+			try {
+				branches = snapshot.loadBranches(new Callable<RefTable>() {
+					public RefTable call() throws InterruptedException {
+						Collection<String> scope = snapshot.scope;
+						RefTable refs = listRefs(Constants.R_REMOTES, scope);
+						if (refs != null) return refs;
+						RefTable.Builder listed = new RefTable.Builder();
+						for (Branch b : git.getRemoteBranches()) {
+							if (scope == null || RefDatabaseListing.matches(scope, b.getName())) {
+								listed.add("", b.getName(), b.getSHA1());
+							}
+						}
+						return listed.build();
+					}
+				});
+			} finally {
+				stats.end(CallStats.Phase.BRANCHES, t);
+			}
+		}
+		return branches;
+	}
+
+	/**
+	 * Lists the refs under the base in-process, all of them or those the
+	 * queries cover, or returns null if that is turned off or fails, in
+	 * which case git is to be asked.
+	 */
+	private RefTable listRefs(String base, Collection<String> queries) throws InterruptedException {
+		if (NO_REF_DATABASE) return null;
+		try {
+			return git.withRepository(queries == null ? new RefDatabaseListing(base) : new RefDatabaseListing(base, queries));
+		} catch (IOException x) {
+			return null;
+		} catch (GitException x) {
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up a remote branch by its full name, e.g. "origin/master".
+	 */
+	Branch getBranch(String name) throws GitException, InterruptedException {
+		return getBranches().getBranch(name);
+	}
+
+	/**
+	 * Looks up a branch by its name on the remote, e.g. "master", and returns
+	 * the first remote's branch of that name.
+	 */
+	Branch getBranchOnAnyRemote(String shortName) throws GitException, InterruptedException {
+		return getBranches().getBranchOnAnyRemote(shortName);
+	}
+
+	/**
+	 * Returns which of the given branches of the table was committed to
+	 * most recently, the first one on a tie or should the commits not be
+	 * readable.  Unless none was readable, the answer is kept in the
+	 * snapshot for the spec.
+	 *
+	 * @param spec the wildcard spec the branches match
+	 * @param indexes indexes into the table
+	 */
+	int getNewest(String spec, RefTable branches, int[] indexes) throws InterruptedException {
+		if (indexes.length < 2) return indexes.length == 0 ? -1 : indexes[0];
+		ObjectId[] commits = new ObjectId[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			commits[i] = branches.getObjectId(indexes[i]);
+		}
+		long t = stats.start();
+		try {
+			int newest = git.withRepository(new NewestCommit(commits));
+			if (newest < 0) return indexes[0];
+			snapshot.putNewest(spec, indexes[newest]);
+			return indexes[newest];
+		} catch (IOException x) {
+			return indexes[0];
+		} catch (GitException x) {
+			return indexes[0];
+		} finally {
+			stats.end(CallStats.Phase.RESOLVE, t);
+		}
+	}
+
+	boolean hasTag(String name) throws GitException, InterruptedException {
+		String ref = Constants.R_TAGS + name;
+		resolvePending(ref);
+		ObjectId sha1 = snapshot.getResolved(ref);
+		if (sha1 != null) return sha1 != UNRESOLVED;
+		Set<String> tags = snapshot.getTags();
+		if (tags == null) {
+			long t = stats.start();
+			try {
+				tags = snapshot.loadTags(new Callable<Set<String>>() {
+					public Set<String> call() throws InterruptedException {
+						RefTable refs = listRefs(Constants.R_TAGS, null);
+						if (refs == null) return git.getTagNames("*");
+						Set<String> names = new HashSet<String>(refs.size() * 2);
+						for (int i = 0; i < refs.size(); i++) {
+							names.add(refs.getName(i));
+						}
+						return names;
+					}
+				});
+			} finally {
+				stats.end(CallStats.Phase.TAGS, t);
+			}
+		}
+		return tags.contains(name);
+	}
+
+	/**
+	 * Returns the commit a tag of the snapshot points to.
+	 */
+	ObjectId resolveTag(String name) throws GitException, InterruptedException {
+		return revParse(Constants.R_TAGS + name);
+	}
+
+	/**
+	 * Resolves a (possibly abbreviated) SHA1.  If the branches have already
+	 * been listed their heads are looked up in the snapshot; anything else
+	 * is resolved in the batch or, failing that, handed to git once.
+	 *
+	 * @return the commit, or null if the name does not resolve
+	 */
+	ObjectId resolveSha1(String prefix) throws InterruptedException {
+		RefTable branches = snapshot.getBranches();
+		if (branches != null) {
+			ObjectId sha1 = branches.findAbbreviated(prefix);
+			if (sha1 != null) return sha1;
+		}
+		resolvePending(prefix);
+		try {
+			return revParse(prefix);
+		} catch (GitException x) {
+			return null;
+		}
+	}
+
+	/**
+	 * Rev-parses a name, remembering both the result and a failure.
+	 */
+	private ObjectId revParse(String name) throws GitException, InterruptedException {
+		ObjectId sha1 = snapshot.getResolved(name);
+		if (sha1 == UNRESOLVED) throw new GitException("Unable to resolve " + name);
+		if (sha1 == null) {
+			long t = stats.start();
+			try {
+				sha1 = git.revParse(name);
+			} catch (GitException x) {
+				snapshot.putResolved(name, UNRESOLVED);
+				throw x;
+			} finally {
+				stats.end(CallStats.Phase.RESOLVE, t);
+			}
+			snapshot.putResolved(name, sha1);
+		}
+		return sha1;
+	}
+}
@@ -0,0 +1,230 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.GitException;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The refs of a repository as far as they have been read, the branches as
+ * a {@link RefTable}.  A snapshot holds no reference to
+ * the repository, so it can be shared between calls that see the same ref
+ * state; {@link RefIndex} fills in the parts that are still missing.
+ *
+ * When several calls need the same missing part at once, only one of them
+ * reads it from the repository and the others wait for its result.
+ */
+final class RefSnapshot {
+	/** Maximum number of scoped snapshots kept in a full one. */
+	static int MAX_SCOPES = Integer.getInteger(RefSnapshot.class.getName() + ".maxScopes", 16);
+
+	/** Remotes and ref state fingerprint, or null if not to be stored. */
+	final String urls;
+	final String fingerprint;
+	/**
+	 * The {@link RefDatabaseListing} queries the branches are limited to,
+	 * relative to refs/remotes/, or null for all branches.
+	 */
+	final SortedSet<String> scope;
+
+	private final SingleFlight<RefTable> branches = new SingleFlight<RefTable>();
+	private final SingleFlight<Set<String>> tags = new SingleFlight<Set<String>>();
+	private final Map<String, ObjectId> resolved = new HashMap<String, ObjectId>();
+	/** Index in the branches of the most recent commit, by wildcard spec. */
+	private final Map<String, Integer> newest = new HashMap<String, Integer>();
+	/** The snapshots of parts of this one, least recently used first. */
+	private final Map<SortedSet<String>, RefSnapshot> scoped = new LinkedHashMap<SortedSet<String>, RefSnapshot>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<SortedSet<String>, RefSnapshot> eldest) {
+			return size() > MAX_SCOPES;
+		}
+	};
+
+	// what has been written by RefSnapshotStore
+	private boolean storedBranches;
+	private boolean storedTags;
+
+	RefSnapshot() {
+		this(null, null);
+	}
+
+	RefSnapshot(String urls, String fingerprint) {
+		this(urls, fingerprint, null);
+	}
+
+	/**
+	 * Creates a snapshot of only the branches the queries cover, or of all
+	 * of them if scope is null.
+	 */
+	RefSnapshot(String urls, String fingerprint, SortedSet<String> scope) {
+		this.urls = urls;
+		this.fingerprint = fingerprint;
+		this.scope = scope;
+	}
+
+	/**
+	 * Returns the remote branches, or null if they have not been listed.
+	 */
+	RefTable getBranches() {
+		return branches.peek();
+	}
+
+	void setBranches(RefTable branches) {
+		this.branches.set(branches);
+	}
+
+	/**
+	 * Returns the remote branches, listing them with the loader if no other
+	 * call has listed them or is doing so.
+	 */
+	RefTable loadBranches(Callable<RefTable> loader) throws GitException, InterruptedException {
+		return branches.get(loader);
+	}
+
+	/**
+	 * Returns the tag names, or null if they have not been listed.
+	 */
+	Set<String> getTags() {
+		return tags.peek();
+	}
+
+	void setTags(Set<String> tags) {
+		this.tags.set(tags);
+	}
+
+	/**
+	 * Returns the tag names, listing them with the loader if no other call
+	 * has listed them or is doing so.
+	 */
+	Set<String> loadTags(Callable<Set<String>> loader) throws GitException, InterruptedException {
+		return tags.get(loader);
+	}
+
+	/**
+	 * Whether the snapshot knows more than was last stored.
+	 */
+	synchronized boolean needsStoring() {
+		return urls != null && getBranches() != null && (!storedBranches || !storedTags && getTags() != null);
+	}
+
+	synchronized void markStored(boolean withTags) {
+		storedBranches = true;
+		storedTags = withTags;
+	}
+
+	/**
+	 * Returns the snapshot of the branches in the scope of the same ref
+	 * state, or null if there is none yet.
+	 */
+	synchronized RefSnapshot findScoped(SortedSet<String> scope) {
+		return scoped.get(scope);
+	}
+
+	/**
+	 * Returns the snapshot of the branches in the scope of the same ref
+	 * state, creating it if there is none yet.  A new one takes its
+	 * branches from this snapshot if they are known, else from the one
+	 * stored for the scope, if any.
+	 */
+	RefSnapshot getScoped(SortedSet<String> scope) {
+		RefSnapshot snapshot = findScoped(scope);
+		if (snapshot != null) return snapshot;
+		// filtered or read outside the lock; the first one published is kept
+		RefTable all = getBranches();
+		if (all != null) {
+			snapshot = new RefSnapshot(urls, fingerprint, scope);
+			snapshot.setBranches(all.filter(scope));
+			snapshot.setTags(getTags());
+			snapshot.markStored(true); // nothing this one doesn't hold
+		} else if (urls != null) {
+			snapshot = RefSnapshotStore.load(urls, fingerprint, scope);
+		}
+		if (snapshot == null) snapshot = new RefSnapshot(urls, fingerprint, scope);
+		synchronized (this) {
+			RefSnapshot published = scoped.get(scope);
+			if (published != null) return published;
+			scoped.put(scope, snapshot);
+		}
+		return snapshot;
+	}
+
+	synchronized ObjectId getResolved(String name) {
+		return resolved.get(name);
+	}
+
+	synchronized void putResolved(String name, ObjectId sha1) {
+		resolved.put(name, sha1);
+	}
+
+	/**
+	 * Returns the index in the branches of the most recently committed
+	 * match of the wildcard spec, or null if not known yet.
+	 */
+	synchronized Integer getNewest(String spec) {
+		return newest.get(spec);
+	}
+
+	synchronized void putNewest(String spec, int index) {
+		newest.put(spec, index);
+	}
+
+	/**
+	 * A value computed at most once at a time: callers that find it being
+	 * computed wait for that computation instead of starting their own.  A
+	 * failed computation is not kept, so the next caller tries again.
+	 */
+	static final class SingleFlight<T> {
+		private T value;
+		private FutureTask<T> running;
+
+		synchronized T peek() {
+			return value;
+		}
+
+		synchronized void set(T value) {
+			this.value = value;
+		}
+
+		T get(Callable<T> loader) throws GitException, InterruptedException {
+			while (true) {
+				FutureTask<T> task;
+				boolean owner = false;
+				synchronized (this) {
+					if (value != null) return value;
+					if (running == null) {
+						running = new FutureTask<T>(loader);
+						owner = true;
+					}
+					task = running;
+				}
+				if (owner) task.run();
+				try {
+					T result = task.get();
+					synchronized (this) {
+						if (running == task) {
+							value = result;
+							running = null;
+						}
+					}
+					return result;
+				} catch (ExecutionException x) {
+					synchronized (this) {
+						if (running == task) running = null;
+					}
+					Throwable cause = x.getCause();
+					if (cause instanceof InterruptedException) {
+						if (owner) throw (InterruptedException) cause;
+						continue; // the owner was interrupted, not us
+					}
+					if (cause instanceof GitException) throw (GitException) cause;
+					if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+					if (cause instanceof Error) throw (Error) cause;
+					throw new GitException(cause);
+				}
+			}
+		}
+	}
+}
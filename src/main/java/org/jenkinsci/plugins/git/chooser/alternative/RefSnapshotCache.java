@@ -0,0 +1,225 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.Repository;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Controller-wide cache of {@link RefSnapshot}s, so that jobs polling the
+ * same repository share what has already been read from it.
+ *
+ * Snapshots are keyed by the remotes, each as name=URL and refspec, plus
+ * a fingerprint of the ref state of the workspace repository (see
+ * {@link Fingerprint}); a fetch that changes any ref changes the key.
+ * Snapshots limited to some branches are kept inside the full snapshot of
+ * the same key, so that they don't take entries of their own.
+ *
+ * The cache is split into {@link #STRIPES} stripes by remote URL, each
+ * with its own lock, so that calls for unrelated repositories rarely
+ * contend.  Each stripe evicts its least recently used entries once it
+ * holds its share of {@link #MAX_SIZE}.
+ */
+final class RefSnapshotCache {
+	static int MAX_SIZE = Integer.getInteger(RefSnapshotCache.class.getName() + ".maxSize", 64);
+	static final int STRIPES = 16;
+
+	private static final Stripe[] CACHE = new Stripe[STRIPES];
+	static {
+		for (int i = 0; i < STRIPES; i++) CACHE[i] = new Stripe();
+	}
+
+	private static final class Stripe extends LinkedHashMap<String, RefSnapshot> {
+		Stripe() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, RefSnapshot> eldest) {
+			return size() > Math.max(MAX_SIZE / STRIPES, 1);
+		}
+	}
+
+	private RefSnapshotCache() {
+	}
+
+	/**
+	 * Returns the snapshot for the remote URLs and ref state.  On a miss the
+	 * snapshot stored on disk is used if it matches, else an empty one.
+	 */
+	static RefSnapshot get(String urls, String fingerprint, CallStats stats) {
+		return get(urls, fingerprint, null, stats);
+	}
+
+	/**
+	 * Returns the snapshot of the branches in the scope, see
+	 * {@link RefSnapshot#scope}; null for all of them.
+	 */
+	static RefSnapshot get(String urls, String fingerprint, SortedSet<String> scope, CallStats stats) {
+		Stripe stripe = CACHE[(urls.hashCode() & 0x7fffffff) % STRIPES];
+		String key = urls + ' ' + fingerprint;
+		RefSnapshot snapshot;
+		synchronized (stripe) {
+			snapshot = stripe.get(key);
+		}
+		boolean hit = snapshot != null;
+		if (!hit) {
+			// read outside the lock, and keep whichever call publishes first
+			RefSnapshot loaded = RefSnapshotStore.load(urls, fingerprint);
+			if (loaded == null) loaded = new RefSnapshot(urls, fingerprint);
+			synchronized (stripe) {
+				snapshot = stripe.get(key);
+				if (snapshot == null) {
+					snapshot = loaded;
+					stripe.put(key, snapshot);
+				}
+			}
+		}
+		if (scope != null) {
+			RefSnapshot scoped = snapshot.findScoped(scope);
+			if (scoped == null) {
+				hit = false;
+				scoped = snapshot.getScoped(scope);
+			}
+			snapshot = scoped;
+		}
+		stats.cacheHit(hit);
+		return snapshot;
+	}
+
+	static void clear() {
+		for (Stripe stripe : CACHE) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	/**
+	 * Computes a fingerprint of the ref state of a repository without
+	 * running git: digests of FETCH_HEAD and packed-refs plus the names of
+	 * the loose remote-tracking branches and tags.  Since every fetch
+	 * rewrites FETCH_HEAD, workspaces of the same remote that have fetched
+	 * the same refs get the same fingerprint; the loose names tell apart
+	 * workspaces that did or did not prune branches deleted since.  Digests
+	 * are kept per file and only recomputed when the file's size or
+	 * modification time changes.  The names are digested per directory and
+	 * only listed again when the directory's modification time changes, as
+	 * git creates and renames a lock file in it for every ref it writes; so
+	 * a call that finds nothing changed costs one stat per directory.
+	 *
+	 * Returns null when the repository has never been fetched into.
+	 */
+	static final class Fingerprint implements RepositoryCallback<String> {
+		private static final Map<String, String> DIGESTS = new HashMap<String, String>();
+		/** The loose refs and subdirectories of a directory, by path. */
+		private static final Map<String, Listing> LISTINGS = new HashMap<String, Listing>();
+		/** How recent a modification time may be too coarse to tell changes apart. */
+		private static final long RACY = 2000;
+
+		public String invoke(Repository repo, VirtualChannel channel) throws IOException, InterruptedException {
+			File dir = repo.getDirectory();
+			File fetchHead = new File(dir, "FETCH_HEAD");
+			if (!fetchHead.isFile()) return null;
+			StringBuilder b = new StringBuilder();
+			b.append(digest(fetchHead)).append(':').append(digest(new File(dir, "packed-refs")));
+			b.append(':').append(digestNames(new File(dir, "refs/remotes")));
+			b.append(':').append(digestNames(new File(dir, "refs/tags")));
+			return b.toString();
+		}
+
+		/**
+		 * Returns a digest of the names of the loose refs under a directory,
+		 * "-" if there is no such directory.
+		 */
+		private static String digestNames(File dir) {
+			long modified = dir.lastModified();
+			if (modified == 0) return "-";
+			Listing listing;
+			synchronized (LISTINGS) {
+				listing = LISTINGS.get(dir.getPath());
+			}
+			if (listing == null || listing.modified != modified) {
+				File[] files = dir.listFiles();
+				if (files == null) return "-";
+				listing = new Listing(modified, files);
+				// a change within the same tick would not change the time
+				if (System.currentTimeMillis() - modified > RACY) {
+					synchronized (LISTINGS) {
+						if (LISTINGS.size() > MAX_SIZE * 64) LISTINGS.clear();
+						LISTINGS.put(dir.getPath(), listing);
+					}
+				}
+			}
+			String[] below = new String[listing.dirs.length];
+			for (int i = 0; i < below.length; i++) {
+				below[i] = digestNames(new File(dir, listing.dirs[i]));
+			}
+			return listing.digest(below);
+		}
+
+		/**
+		 * The names in a directory as of its modification time, and their
+		 * digest together with those of its subdirectories.
+		 */
+		private static final class Listing {
+			final long modified;
+			final String[] files;
+			final String[] dirs;
+			private String[] below;
+			private String digest;
+
+			Listing(long modified, File[] entries) {
+				this.modified = modified;
+				List<String> files = new ArrayList<String>(), dirs = new ArrayList<String>();
+				for (File f : entries) {
+					(f.isDirectory() ? dirs : files).add(f.getName());
+				}
+				Collections.sort(files);
+				Collections.sort(dirs);
+				this.files = files.toArray(new String[files.size()]);
+				this.dirs = dirs.toArray(new String[dirs.size()]);
+			}
+
+			synchronized String digest(String[] below) {
+				if (digest == null || !Arrays.equals(below, this.below)) {
+					StringBuilder b = new StringBuilder();
+					for (String f : files) b.append(f).append('\n');
+					for (int i = 0; i < dirs.length; i++) b.append(dirs[i]).append('/').append(below[i]).append('\n');
+					this.below = below;
+					digest = Util.getDigestOf(b.toString());
+				}
+				return digest;
+			}
+		}
+
+		private static String digest(File f) throws IOException {
+			if (!f.isFile()) return "-";
+			String stat = f.getPath() + ':' + f.length() + ':' + f.lastModified();
+			synchronized (DIGESTS) {
+				String digest = DIGESTS.get(stat);
+				if (digest != null) return digest;
+			}
+			InputStream in = new FileInputStream(f);
+			String digest;
+			try {
+				digest = Util.getDigestOf(in);
+			} finally {
+				in.close();
+			}
+			synchronized (DIGESTS) {
+				if (DIGESTS.size() > MAX_SIZE * 4) DIGESTS.clear();
+				DIGESTS.put(stat, digest);
+			}
+			return digest;
+		}
+
+		private static final long serialVersionUID = 1L;
+	}
+}
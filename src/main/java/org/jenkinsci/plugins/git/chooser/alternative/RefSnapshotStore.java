@@ -0,0 +1,177 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.Util;
+import jenkins.model.Jenkins;
+import org.eclipse.jgit.lib.Constants;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the last {@link RefSnapshot} of each set of remotes on disk, one
+ * per scope of branches, under JENKINS_HOME/git-chooser-alternative, so
+ * that the first polls after a restart need not list every ref again.
+ *
+ * A stored snapshot is only used for the ref state it was taken from: it
+ * is read when the cache has no snapshot for a key or scope, and kept only
+ * if its fingerprint equals the current one.  The file holds the
+ * fingerprint and scope, the branch names in sorted order each followed by
+ * its raw SHA1, and the tag names if they were listed.
+ */
+final class RefSnapshotStore {
+	private static final Logger LOGGER = Logger.getLogger(RefSnapshotStore.class.getName());
+
+	static boolean DISABLED = Boolean.getBoolean(RefSnapshotStore.class.getName() + ".disabled");
+
+	private static final int MAGIC = 0x47434152;
+	private static final int VERSION = 2;
+
+	private RefSnapshotStore() {
+	}
+
+	/**
+	 * Returns the stored snapshot of the remotes if it was taken from the
+	 * given ref state, or null.
+	 */
+	static RefSnapshot load(String urls, String fingerprint) {
+		return load(urls, fingerprint, null);
+	}
+
+	/**
+	 * Returns the stored snapshot of the branches in the scope, see
+	 * {@link RefSnapshot#scope}; null for all of them.
+	 */
+	static RefSnapshot load(String urls, String fingerprint, SortedSet<String> scope) {
+		File file = getFile(urls, scope);
+		if (file == null || !file.isFile()) return null;
+		try {
+			return read(file, urls, fingerprint, scope);
+		} catch (IOException x) {
+			LOGGER.log(Level.FINE, "could not read " + file, x);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the snapshot if it knows more than was stored before.
+	 */
+	static void save(RefSnapshot snapshot) {
+		if (!snapshot.needsStoring()) return;
+		File file = getFile(snapshot.urls, snapshot.scope);
+		if (file == null) return;
+		try {
+			boolean withTags = write(file, snapshot);
+			snapshot.markStored(withTags);
+		} catch (IOException x) {
+			LOGGER.log(Level.FINE, "could not write " + file, x);
+		}
+	}
+
+	private static File getFile(String urls, SortedSet<String> scope) {
+		if (DISABLED) return null;
+		Jenkins jenkins = Jenkins.getInstance();
+		if (jenkins == null) return null;
+		File dir = new File(jenkins.getRootDir(), "git-chooser-alternative");
+		return new File(dir, Util.getDigestOf(scope == null ? urls : urls + ' ' + scope) + ".refs");
+	}
+
+	static RefSnapshot read(File file, String urls, String fingerprint, SortedSet<String> scope) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (data.readInt() != MAGIC || data.readInt() != VERSION) return null;
+			if (!data.readUTF().equals(urls) || !data.readUTF().equals(fingerprint)) return null;
+
+			int count = data.readInt();
+			SortedSet<String> stored = null;
+			if (count >= 0) {
+				stored = new TreeSet<String>();
+				for (int i = 0; i < count; i++) {
+					stored.add(data.readUTF());
+				}
+			}
+			if (scope == null ? stored != null : !scope.equals(stored)) return null;
+
+			count = data.readInt();
+			RefTable.Builder branches = new RefTable.Builder();
+			byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+			for (int i = 0; i < count; i++) {
+				String name = data.readUTF();
+				data.readFully(raw);
+				branches.add("", name, raw, 0);
+			}
+			RefSnapshot snapshot = new RefSnapshot(urls, fingerprint, scope);
+			snapshot.setBranches(branches.build());
+
+			count = data.readInt();
+			if (count >= 0) {
+				Set<String> tags = new HashSet<String>(count * 2);
+				for (int i = 0; i < count; i++) {
+					tags.add(data.readUTF());
+				}
+				snapshot.setTags(tags);
+			}
+			snapshot.markStored(count >= 0);
+			return snapshot;
+		} catch (EOFException x) {
+			return null; // truncated
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * Writes the snapshot to a new file that then replaces the old one, so
+	 * that readers never see a partly written file.
+	 *
+	 * @return whether the tags were written too
+	 */
+	static boolean write(File file, RefSnapshot snapshot) throws IOException {
+		RefTable branches = snapshot.getBranches();
+		Set<String> tags = snapshot.getTags();
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("could not create " + dir);
+		File tmp = File.createTempFile("refs", ".tmp", dir);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(snapshot.urls);
+				out.writeUTF(snapshot.fingerprint);
+				if (snapshot.scope == null) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(snapshot.scope.size());
+					for (String query : snapshot.scope) {
+						out.writeUTF(query);
+					}
+				}
+				out.writeInt(branches.size());
+				byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+				for (int i = 0; i < branches.size(); i++) {
+					out.writeUTF(branches.getName(i));
+					branches.getObjectId(i).copyRawTo(raw, 0);
+					out.write(raw);
+				}
+				if (tags == null) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(tags.size());
+					for (String tag : tags) {
+						out.writeUTF(tag);
+					}
+				}
+			} finally {
+				out.close();
+			}
+			if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+				throw new IOException("could not replace " + file);
+			}
+		} finally {
+			tmp.delete();
+		}
+		return tags != null;
+	}
+}
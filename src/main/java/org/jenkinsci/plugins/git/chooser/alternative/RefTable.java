@@ -0,0 +1,395 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.Branch;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * The remote branches of a {@link RefSnapshot} in a compact, immutable
+ * form: the names in sorted order in one char array, addressed by offsets,
+ * and their SHA1s packed five ints each into one int array.  Lookups are
+ * binary searches, and a {@link Branch} is only created for a branch that
+ * is asked for, so that tens of thousands of refs cost a few arrays rather
+ * than three objects each.
+ *
+ * The branches are also indexed by their name on the remote, the part
+ * after the first "/", keeping only the first remote's branch of a name.
+ */
+final class RefTable implements Serializable {
+	private static final int WORDS = Constants.OBJECT_ID_LENGTH / 4;
+
+	static final RefTable EMPTY = new Builder().build();
+
+	private final char[] chars;
+	/** Where each name starts in chars; the next entry is where it ends. */
+	private final int[] offsets;
+	private final int[] sha1s;
+	/** Indexes in order of the name on the remote, built on first use. */
+	private transient volatile int[] byShortName;
+
+	private RefTable(char[] chars, int[] offsets, int[] sha1s) {
+		this.chars = chars;
+		this.offsets = offsets;
+		this.sha1s = sha1s;
+	}
+
+	static RefTable of(Iterable<Branch> branches) {
+		Builder builder = new Builder();
+		for (Branch b : branches) {
+			builder.add("", b.getName(), b.getSHA1());
+		}
+		return builder.build();
+	}
+
+	int size() {
+		return offsets.length - 1;
+	}
+
+	String getName(int i) {
+		return new String(chars, offsets[i], offsets[i + 1] - offsets[i]);
+	}
+
+	ObjectId getObjectId(int i) {
+		return ObjectId.fromRaw(sha1s, i * WORDS);
+	}
+
+	Branch getBranch(int i) {
+		return new Branch(getName(i), getObjectId(i));
+	}
+
+	/**
+	 * Looks up a branch by its full name, e.g. "origin/master".
+	 */
+	Branch getBranch(String name) {
+		int lo = 0, hi = size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compare(chars, offsets[mid], offsets[mid + 1], name, false);
+			if (c == 0) return getBranch(mid);
+			if (c < 0) lo = mid + 1;
+			else hi = mid;
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up a branch by its name on the remote, e.g. "master".
+	 */
+	Branch getBranchOnAnyRemote(String shortName) {
+		Cursor c = byShortName(shortName);
+		while (c.next()) {
+			if (c.length() == shortName.length()) return getBranch(c.index());
+		}
+		return null;
+	}
+
+	/**
+	 * Walks the branches whose full name starts with the prefix.
+	 */
+	Cursor byName(String prefix) {
+		return new Cursor(null, prefix);
+	}
+
+	/**
+	 * Walks the branches whose name on the remote starts with the prefix.
+	 */
+	Cursor byShortName(String prefix) {
+		return new Cursor(getShortNameOrder(), prefix);
+	}
+
+	/**
+	 * Returns the branches that the {@link RefDatabaseListing} queries cover,
+	 * as the listing would have returned them.
+	 */
+	RefTable filter(Collection<String> queries) {
+		Builder builder = new Builder();
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (String query : queries) {
+			boolean directory = RefDatabaseListing.isDirectory(query);
+			Cursor c = byName(query);
+			while (c.next()) {
+				if (!directory && c.length() != query.length()) continue;
+				for (int w = 0; w < WORDS; w++) {
+					NB.encodeInt32(raw, w * 4, sha1s[c.index() * WORDS + w]);
+				}
+				builder.add("", c.toString(), raw, 0);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the first branch head, in name order, whose SHA1 starts with
+	 * the given lower case hex digits, or null.
+	 */
+	ObjectId findAbbreviated(String hex) {
+		int[] nibbles = new int[Math.min(hex.length(), Constants.OBJECT_ID_STRING_LENGTH)];
+		for (int k = 0; k < nibbles.length; k++) {
+			nibbles[k] = Character.digit(hex.charAt(k), 16);
+		}
+		entries:
+		for (int i = 0, n = size(); i < n; i++) {
+			for (int k = 0; k < nibbles.length; k++) {
+				int word = sha1s[i * WORDS + k / 8];
+				if ((word >>> (28 - 4 * (k % 8)) & 0xf) != nibbles[k]) continue entries;
+			}
+			return getObjectId(i);
+		}
+		return null;
+	}
+
+	private int shortNameStart(int i) {
+		for (int p = offsets[i], end = offsets[i + 1]; p < end; p++) {
+			if (chars[p] == '/') return p + 1;
+		}
+		return offsets[i];
+	}
+
+	private int[] getShortNameOrder() {
+		int[] order = byShortName;
+		if (order == null) {
+			int n = size();
+			order = new int[n];
+			for (int i = 0; i < n; i++) order[i] = i;
+			// stable, so that the first remote's branch comes first
+			sort(order, new Order() {
+				int compare(int a, int b) {
+					return RefTable.compare(chars, shortNameStart(a), offsets[a + 1], shortNameStart(b), offsets[b + 1]);
+				}
+			});
+			int kept = 0;
+			for (int i = 0; i < n; i++) {
+				if (kept > 0) {
+					int last = order[kept - 1];
+					if (compare(chars, shortNameStart(last), offsets[last + 1], shortNameStart(order[i]), offsets[order[i] + 1]) == 0) continue;
+				}
+				order[kept++] = order[i];
+			}
+			if (kept < n) {
+				int[] shorter = new int[kept];
+				System.arraycopy(order, 0, shorter, 0, kept);
+				order = shorter;
+			}
+			byShortName = order;
+		}
+		return order;
+	}
+
+	/**
+	 * Walks the branches whose full name, or name on the remote, starts with
+	 * a prefix, in order of that name.  Presents that name of the current
+	 * branch as a CharSequence, so that it can be matched without creating
+	 * a String for it.
+	 */
+	final class Cursor implements CharSequence {
+		/** Null to walk in order of the full name. */
+		private final int[] order;
+		private int position;
+		private final int end;
+		private int index = -1;
+		private int start;
+
+		private Cursor(int[] order, String prefix) {
+			this.order = order;
+			position = bound(prefix, false);
+			end = bound(prefix, true);
+		}
+
+		/**
+		 * Returns the first position whose name comes after the prefix, or
+		 * with after, after every name that starts with it.
+		 */
+		private int bound(String prefix, boolean after) {
+			int lo = 0, hi = order == null ? size() : order.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				int i = order == null ? mid : order[mid];
+				int from = order == null ? offsets[i] : shortNameStart(i);
+				int c = compare(chars, from, offsets[i + 1], prefix, true);
+				if (c < 0 || after && c == 0) lo = mid + 1;
+				else hi = mid;
+			}
+			return lo;
+		}
+
+		boolean next() {
+			if (position >= end) return false;
+			index = order == null ? position : order[position];
+			start = order == null ? offsets[index] : shortNameStart(index);
+			position++;
+			return true;
+		}
+
+		/**
+		 * The index of the current branch in the table.
+		 */
+		int index() {
+			return index;
+		}
+
+		public int length() {
+			return offsets[index + 1] - start;
+		}
+
+		public char charAt(int k) {
+			return chars[start + k];
+		}
+
+		public CharSequence subSequence(int from, int to) {
+			return new String(chars, start + from, to - from);
+		}
+
+		@Override
+		public String toString() {
+			return new String(chars, start, length());
+		}
+	}
+
+	/**
+	 * Compares a name in the array with a key as {@link String#compareTo}
+	 * would, or if prefix is set, returns 0 for a name starting with the key.
+	 */
+	private static int compare(char[] chars, int from, int to, String key, boolean prefix) {
+		int n = Math.min(to - from, key.length());
+		for (int k = 0; k < n; k++) {
+			int c = chars[from + k] - key.charAt(k);
+			if (c != 0) return c;
+		}
+		if (prefix && to - from >= key.length()) return 0;
+		return (to - from) - key.length();
+	}
+
+	private static int compare(char[] chars, int from1, int to1, int from2, int to2) {
+		int n = Math.min(to1 - from1, to2 - from2);
+		for (int k = 0; k < n; k++) {
+			int c = chars[from1 + k] - chars[from2 + k];
+			if (c != 0) return c;
+		}
+		return (to1 - from1) - (to2 - from2);
+	}
+
+	private static abstract class Order {
+		abstract int compare(int a, int b);
+	}
+
+	/**
+	 * Stable merge sort of indexes, without boxing them.
+	 */
+	private static void sort(int[] a, Order order) {
+		int[] from = a, to = new int[a.length];
+		for (int width = 1; width < a.length; width *= 2) {
+			for (int lo = 0; lo < a.length; lo += 2 * width) {
+				int mid = Math.min(lo + width, a.length), hi = Math.min(lo + 2 * width, a.length);
+				int i = lo, j = mid, k = lo;
+				while (i < mid && j < hi) {
+					to[k++] = order.compare(from[j], from[i]) < 0 ? from[j++] : from[i++];
+				}
+				while (i < mid) to[k++] = from[i++];
+				while (j < hi) to[k++] = from[j++];
+			}
+			int[] t = from;
+			from = to;
+			to = t;
+		}
+		if (from != a) System.arraycopy(from, 0, a, 0, a.length);
+	}
+
+	/**
+	 * Collects branches in any order; the table is sorted by name, keeping
+	 * the first branch added of a name.
+	 */
+	static final class Builder {
+		private char[] chars = new char[1024];
+		private int length;
+		private int[] offsets = new int[65];
+		private int[] sha1s = new int[64 * WORDS];
+		private int size;
+		private boolean sorted = true;
+		private final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+
+		/**
+		 * Adds the branch named prefix + name.
+		 */
+		void add(String prefix, String name, AnyObjectId sha1) {
+			sha1.copyRawTo(raw, 0);
+			add(prefix, name, raw, 0);
+		}
+
+		/**
+		 * Adds the branch named prefix + name whose raw SHA1 is at the offset.
+		 */
+		void add(String prefix, String name, byte[] sha1, int offset) {
+			int n = prefix.length() + name.length();
+			if (length + n > chars.length) chars = grow(chars, length + n);
+			prefix.getChars(0, prefix.length(), chars, length);
+			name.getChars(0, name.length(), chars, length + prefix.length());
+			if (size + 2 > offsets.length) {
+				offsets = grow(offsets, size + 2);
+				sha1s = grow(sha1s, (offsets.length - 1) * WORDS);
+			}
+			offsets[size] = length;
+			offsets[size + 1] = length + n;
+			if (size > 0 && compare(chars, offsets[size - 1], length, length, length + n) >= 0) sorted = false;
+			for (int w = 0; w < WORDS; w++) {
+				sha1s[size * WORDS + w] = NB.decodeInt32(sha1, offset + w * 4);
+			}
+			length += n;
+			size++;
+		}
+
+		RefTable build() {
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++) order[i] = i;
+			if (!sorted) {
+				sort(order, new Order() {
+					int compare(int a, int b) {
+						return RefTable.compare(chars, offsets[a], offsets[a + 1], offsets[b], offsets[b + 1]);
+					}
+				});
+			}
+			// copy in order, which also trims the arrays, dropping repeated names
+			int kept = 0, total = 0;
+			for (int i = 0; i < size; i++) {
+				if (!sorted && kept > 0 && sameName(order[kept - 1], order[i])) continue;
+				order[kept++] = order[i];
+				total += offsets[order[i] + 1] - offsets[order[i]];
+			}
+			char[] c = new char[total];
+			int[] o = new int[kept + 1];
+			int[] s = new int[kept * WORDS];
+			int p = 0;
+			for (int i = 0; i < kept; i++) {
+				int from = offsets[order[i]], n = offsets[order[i] + 1] - from;
+				System.arraycopy(chars, from, c, p, n);
+				System.arraycopy(sha1s, order[i] * WORDS, s, i * WORDS, WORDS);
+				o[i] = p;
+				p += n;
+			}
+			o[kept] = p;
+			return new RefTable(c, o, s);
+		}
+
+		private boolean sameName(int a, int b) {
+			return compare(chars, offsets[a], offsets[a + 1], offsets[b], offsets[b + 1]) == 0;
+		}
+
+		private static char[] grow(char[] a, int min) {
+			char[] b = new char[Math.max(min, a.length * 2)];
+			System.arraycopy(a, 0, b, 0, a.length);
+			return b;
+		}
+
+		private static int[] grow(int[] a, int min) {
+			int[] b = new int[Math.max(min, a.length * 2)];
+			System.arraycopy(a, 0, b, 0, a.length);
+			return b;
+		}
+	}
+
+	private static final long serialVersionUID = 1L;
+}
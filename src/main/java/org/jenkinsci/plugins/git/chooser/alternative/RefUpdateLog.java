@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.Extension;
+import hudson.plugins.git.GitStatus;
+import org.eclipse.jgit.transport.URIish;
+
+import java.net.URISyntaxException;
+import java.util.*;
+
+/**
+ * Recent ref updates per repository, as reported to the git plugin's
+ * notifyCommit endpoint (typically from a post-receive hook).
+ *
+ * Every update gets a new generation number, so a reader can ask which
+ * refs changed since the generation it last saw.  Only the last
+ * {@link #MAX_EVENTS} updates per repository are kept; a reader that has
+ * fallen further behind is told that anything may have changed.
+ */
+final class RefUpdateLog {
+	static int MAX_EVENTS = Integer.getInteger(RefUpdateLog.class.getName() + ".maxEvents", 100);
+
+	private static final Map<String, Events> EVENTS = new HashMap<String, Events>();
+	private static long generation;
+
+	private RefUpdateLog() {
+	}
+
+	private static final class Events {
+		final LinkedList<Event> list = new LinkedList<Event>();
+		/** Generation of the newest event dropped from the list. */
+		long dropped;
+	}
+
+	private static final class Event {
+		final long generation;
+		/** Branch names as sent by the hook; empty if not known. */
+		final String[] branches;
+
+		Event(long generation, String[] branches) {
+			this.generation = generation;
+			this.branches = branches;
+		}
+	}
+
+	static synchronized long getGeneration() {
+		return generation;
+	}
+
+	static synchronized void record(String url, String... branches) {
+		String key = normalize(url);
+		if (key == null) return;
+		Events events = EVENTS.get(key);
+		if (events == null) {
+			events = new Events();
+			EVENTS.put(key, events);
+		}
+		events.list.add(new Event(++generation, branches == null ? new String[0] : branches.clone()));
+		while (events.list.size() > MAX_EVENTS) events.dropped = events.list.removeFirst().generation;
+	}
+
+	/**
+	 * Returns the names of the branches of the repository updated after the
+	 * given generation, as sent by the hook (e.g. "master", not
+	 * "origin/master"), or null if that is not known.  Nothing is known of
+	 * a repository that was never notified about, as it may have no hook.
+	 */
+	static synchronized Set<String> getChangesSince(String url, long since) {
+		String key = normalize(url);
+		if (key == null) return null;
+		Events events = EVENTS.get(key);
+		if (events == null || events.dropped > since) return null;
+		Set<String> changes = new HashSet<String>();
+		for (Event e : events.list) {
+			if (e.generation <= since) continue;
+			if (e.branches.length == 0) return null;
+			changes.addAll(Arrays.asList(e.branches));
+		}
+		return changes;
+	}
+
+	/**
+	 * Reduces a repository URL to host and path, so that the URL configured
+	 * in a job and the one sent by a hook compare equal.
+	 */
+	static String normalize(String url) {
+		try {
+			URIish uri = new URIish(url);
+			String path = uri.getPath();
+			if (path == null) return null;
+			if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+			if (path.endsWith(".git")) path = path.substring(0, path.length() - 4);
+			if (path.startsWith("/")) path = path.substring(1);
+			String host = uri.getHost();
+			return (host == null ? "" : host.toLowerCase(Locale.ENGLISH)) + ":" + path;
+		} catch (URISyntaxException x) {
+			return null;
+		}
+	}
+
+	/**
+	 * Feeds the log from the git plugin's notifyCommit endpoint.
+	 */
+	@Extension
+	public static class NotifyCommitListener extends GitStatus.Listener {
+		@Override
+		public List<GitStatus.ResponseContributor> onNotifyCommit(URIish uri, String... branches) {
+			record(uri.toString(), branches);
+			return Collections.emptyList();
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.Branch;
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitException;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A branch spec classified and compiled once, so that matching it against
+ * a {@link RefIndex} needs neither regex compilation nor a scan of every
+ * remote branch.
+ *
+ * The branch patterns mirror those of {@link BranchSpec}: an unqualified
+ * name (no "/" and no "**") matches the branch of that name on any remote,
+ * "*" matches within a path segment and "**" across segments, and a
+ * leading ":" introduces a raw regular expression.
+ */
+final class SpecMatcher {
+	private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{6,40}");
+	private static final String[] QUALIFIED_PREFIXES = { "", "refs/heads/", "refs/remotes/", "remotes/" };
+
+	private final String name;
+	private final boolean sha1;
+	private final boolean tag;
+	private final boolean qualified;
+	/** Literal start of every branch name this spec can match. */
+	private final String prefix;
+	/** Null for a literal branch name. */
+	private final Pattern pattern;
+
+	SpecMatcher(String name) {
+		this.name = name;
+		sha1 = SHA1.matcher(name).matches();
+		tag = name.indexOf('/') < 0 && name.indexOf('*') < 0;
+		if (name.startsWith(":") && name.length() > 1) {
+			qualified = true;
+			prefix = "";
+			pattern = Pattern.compile(name.substring(1));
+		} else {
+			qualified = name.contains("**") || name.indexOf('/') >= 0;
+			int star = name.indexOf('*');
+			if (star < 0) {
+				prefix = name;
+				pattern = null;
+			} else {
+				prefix = name.substring(0, star);
+				pattern = Pattern.compile(qualified ? "(refs/heads/|refs/remotes/|remotes/)?" + toRegex(name) : toRegex(name));
+			}
+		}
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Whether the spec might be an abbreviated or full SHA1.
+	 */
+	boolean isSha1() {
+		return sha1;
+	}
+
+	/**
+	 * Whether the spec might be a tag name.
+	 */
+	boolean isTag() {
+		return tag;
+	}
+
+	/**
+	 * Whether the spec may match several branches.
+	 */
+	boolean isWildcard() {
+		return pattern != null;
+	}
+
+	/**
+	 * Finds the first remote branch that this spec matches, in order of the
+	 * full name or, for an unqualified spec, of the name on the remote.
+	 */
+	Branch findBranch(RefIndex refs) throws GitException, InterruptedException {
+		return findBranch(refs, WildcardPolicy.FIRST);
+	}
+
+	/**
+	 * Finds the remote branch that this spec matches, choosing between the
+	 * matches of a wildcard spec by the policy.  The matches are seen one at
+	 * a time in name order and only the best so far is kept.  For
+	 * {@link WildcardPolicy#MOST_RECENT_COMMIT} that is only their number:
+	 * if there is more than one, their commits are read in one go and the
+	 * winner is kept in the {@link RefSnapshot} for the next calls.
+	 */
+	Branch findBranch(RefIndex refs, WildcardPolicy policy) throws GitException, InterruptedException {
+		if (pattern == null && !qualified) {
+			return refs.getBranchOnAnyRemote(name);
+		}
+		if (pattern == null) {
+			for (String p : QUALIFIED_PREFIXES) {
+				Branch b = refs.getBranch(p + name);
+				if (b != null) return b;
+			}
+			return null;
+		}
+		RefTable branches = refs.getBranches();
+		if (policy == WildcardPolicy.MOST_RECENT_COMMIT) {
+			Integer newest = refs.getSnapshot().getNewest(name);
+			if (newest != null) return newest < 0 ? null : branches.getBranch(newest);
+		}
+		Selection selection = new Selection(policy);
+		scan(branches, selection);
+		if (policy == WildcardPolicy.MOST_RECENT_COMMIT) {
+			if (selection.count > 1) {
+				selection.matches = new int[selection.count];
+				selection.count = 0;
+				scan(branches, selection);
+				selection.best = refs.getNewest(name, branches, selection.matches);
+			} else {
+				refs.getSnapshot().putNewest(name, selection.best);
+			}
+		}
+		return selection.best < 0 ? null : branches.getBranch(selection.best);
+	}
+
+	/**
+	 * Offers the matches in the table to the selection, in name order.
+	 */
+	private void scan(RefTable branches, Selection selection) {
+		Matcher matcher = pattern.matcher("");
+		if (!qualified) {
+			RefTable.Cursor c = branches.byShortName(prefix);
+			while (c.next()) {
+				if (matcher.reset(c).matches() && selection.offer(c, c.index())) return;
+			}
+			return;
+		}
+		for (String p : QUALIFIED_PREFIXES) {
+			RefTable.Cursor c = branches.byName(p + prefix);
+			while (c.next()) {
+				if (matcher.reset(c).matches() && selection.offer(c, c.index())) return;
+			}
+			if (prefix.length() == 0) return;
+		}
+	}
+
+	/**
+	 * The best of the matches of a wildcard spec seen so far, as indexes
+	 * into the {@link RefTable}.
+	 */
+	private static final class Selection {
+		private final WildcardPolicy policy;
+		int best = -1;
+		private String bestName;
+		/** Number of matches, only for {@link WildcardPolicy#MOST_RECENT_COMMIT}. */
+		int count;
+		/** If set, where to put the matches, sized to their number. */
+		int[] matches;
+
+		Selection(WildcardPolicy policy) {
+			this.policy = policy;
+		}
+
+		/**
+		 * Offers the next match, returning true if no later one can be better.
+		 */
+		boolean offer(CharSequence name, int index) {
+			switch (policy) {
+			case LAST:
+				best = index;
+				return false;
+			case HIGHEST_VERSION:
+				if (best < 0 || WildcardPolicy.compareVersions(name, bestName) > 0) {
+					best = index;
+					bestName = name.toString();
+				}
+				return false;
+			case MOST_RECENT_COMMIT:
+				if (best < 0) best = index;
+				if (matches != null) matches[count] = index;
+				count++;
+				return false;
+			default:
+				best = index;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns what to list of refs/remotes/ for the specs to find their
+	 * branches, as queries for {@link RefDatabaseListing}: the names of
+	 * single branches or the directories holding all the branches a
+	 * wildcard can match, without queries covered by others.  Contains ""
+	 * if everything is to be listed.
+	 *
+	 * @param remotes the names of the remotes, for unqualified specs
+	 */
+	static SortedSet<String> getBranchQueries(List<SpecMatcher> specs, Collection<String> remotes) {
+		SortedSet<String> all = new TreeSet<String>();
+		for (SpecMatcher spec : specs) {
+			spec.addBranchQueries(remotes, all);
+		}
+		// a directory sorts right before the names it covers
+		SortedSet<String> minimal = new TreeSet<String>();
+		String directory = null;
+		for (String query : all) {
+			if (directory != null && query.startsWith(directory)) continue;
+			minimal.add(query);
+			if (RefDatabaseListing.isDirectory(query)) directory = query;
+		}
+		return minimal;
+	}
+
+	private void addBranchQueries(Collection<String> remotes, Collection<String> queries) {
+		if (!qualified) {
+			for (String remote : remotes) {
+				queries.add(pattern == null ? remote + '/' + name : directory(remote + '/' + prefix));
+			}
+		} else {
+			queries.add(pattern == null ? name : directory(prefix));
+		}
+	}
+
+	private static String directory(String name) {
+		return name.substring(0, name.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Whether this spec could have produced the branch of a revision chosen
+	 * by {@link AlternativeResolver}: "detached" at a matching SHA1, the spec
+	 * itself for a tag, or a matching remote branch.
+	 */
+	boolean matchesBranch(Branch branch) {
+		String branchName = branch.getName();
+		if (sha1 && branchName.equals("detached")) return branch.getSHA1String().startsWith(name);
+		if (branchName.equals(name)) return true;
+		if (pattern == null && !qualified) {
+			return branchName.substring(branchName.indexOf('/') + 1).equals(name);
+		}
+		if (pattern == null) {
+			for (String p : QUALIFIED_PREFIXES) {
+				if (branchName.equals(p + name)) return true;
+			}
+			return false;
+		}
+		if (!qualified) {
+			return pattern.matcher(branchName.substring(branchName.indexOf('/') + 1)).matches();
+		}
+		return pattern.matcher(branchName).matches();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Converts the wildcards of a branch spec to a regular expression the
+	 * same way {@link BranchSpec} does.
+	 */
+	private static String toRegex(String name) {
+		StringBuilder builder = new StringBuilder();
+		boolean foundWildcard = false;
+		StringTokenizer tokenizer = new StringTokenizer(name, "*", true);
+		while (tokenizer.hasMoreTokens()) {
+			String token = tokenizer.nextToken();
+			if (token.equals("*")) {
+				if (foundWildcard) {
+					builder.append(".*");
+					foundWildcard = false;
+				} else {
+					foundWildcard = true;
+				}
+			} else {
+				if (foundWildcard) {
+					builder.append("[^/]*");
+					foundWildcard = false;
+				}
+				builder.append(Pattern.quote(token));
+			}
+		}
+		if (foundWildcard) {
+			builder.append("[^/]*");
+		}
+		return builder.toString();
+	}
+}
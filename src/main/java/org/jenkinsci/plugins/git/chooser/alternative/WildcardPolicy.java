@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+/**
+ * Which branch a wildcard spec picks when it matches several.
+ */
+public enum WildcardPolicy {
+	FIRST("First by name"),
+	LAST("Last by name"),
+	HIGHEST_VERSION("Highest version number in the name"),
+	MOST_RECENT_COMMIT("Most recent commit");
+
+	private final String displayName;
+
+	WildcardPolicy(String displayName) {
+		this.displayName = displayName;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	/**
+	 * Compares branch names by the numbers in them, taken as numbers rather
+	 * than digit strings, so that "release-1.10" comes after "release-1.9".
+	 * Everything else compares character by character.
+	 */
+	static int compareVersions(CharSequence a, CharSequence b) {
+		int i = 0, j = 0;
+		while (i < a.length() && j < b.length()) {
+			char ca = a.charAt(i), cb = b.charAt(j);
+			if (isDigit(ca) && isDigit(cb)) {
+				while (i < a.length() - 1 && a.charAt(i) == '0' && isDigit(a.charAt(i + 1))) i++;
+				while (j < b.length() - 1 && b.charAt(j) == '0' && isDigit(b.charAt(j + 1))) j++;
+				int ei = i, ej = j;
+				while (ei < a.length() && isDigit(a.charAt(ei))) ei++;
+				while (ej < b.length() && isDigit(b.charAt(ej))) ej++;
+				if (ei - i != ej - j) return (ei - i) - (ej - j);
+				for (; i < ei; i++, j++) {
+					if (a.charAt(i) != b.charAt(j)) return a.charAt(i) - b.charAt(j);
+				}
+			} else {
+				if (ca != cb) return ca - cb;
+				i++;
+				j++;
+			}
+		}
+		return (a.length() - i) - (b.length() - j);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
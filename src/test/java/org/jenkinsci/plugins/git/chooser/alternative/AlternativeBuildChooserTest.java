@@ -1,16 +1,31 @@
 package org.jenkinsci.plugins.git.chooser.alternative;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
+import hudson.FilePath;
+
+import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Result;
 
 import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.GitStatus;
 import hudson.plugins.git.BranchSpec;
 import hudson.plugins.git.AbstractGitTestCase;
+import hudson.plugins.git.extensions.impl.PruneStaleBranch;
+import hudson.plugins.git.util.BuildData;
 
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.EnvironmentVariablesNodeProperty;
 
+import jenkins.model.Jenkins;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.Git;
+
 /**
  * Test a GitSCM based project with the Alternative build chooser
  *
@@ -21,6 +36,8 @@ import hudson.slaves.EnvironmentVariablesNodeProperty;
 public class AlternativeBuildChooserTest extends AbstractGitTestCase {
 	final String commitFile1 = "commitFile1";
 	final String commitFile2 = "commitFile2";
+	final String commitFile3 = "commitFile3";
+	final String commitFile4 = "commitFile4";
 
 	public void testAlternativeMaster() throws Exception {
 		FreeStyleProject project = setupProject(Arrays.asList(
@@ -54,6 +71,82 @@ public class AlternativeBuildChooserTest extends AbstractGitTestCase {
 		build(project, Result.SUCCESS, commitFile2);
 	}
 
+	public void testAlternativeTag() throws Exception {
+		FreeStyleProject project = setupProject(Arrays.asList(
+			new BranchSpec("tag-doesnotexist"),
+			new BranchSpec("tag-exist"),
+			new BranchSpec("master")
+		));
+
+		initRepo();
+		git.tag("tag-exist", "Tag on commit number 2");
+		build(project, Result.SUCCESS, commitFile2);
+	}
+
+	public void testAlternativeSha1() throws Exception {
+		initRepo();
+		String sha1 = git.revParse("branch-exist").name();
+		FreeStyleProject project = setupProject(Arrays.asList(
+			new BranchSpec("deadbeef"),
+			new BranchSpec(sha1.substring(0, 10)),
+			new BranchSpec("master")
+		));
+
+		build(project, Result.SUCCESS, commitFile2);
+	}
+
+	public void testParallel() throws Exception {
+		initRepo();
+		git.tag("tag-exist", "Tag on commit number 2");
+		FreeStyleProject project = setupProject(Arrays.asList(
+			new BranchSpec("deadbeef"),
+			new BranchSpec("tag-doesnotexist"),
+			new BranchSpec("branch-exist"),
+			new BranchSpec("tag-exist")
+		));
+
+		AlternativeBuildChooser.PARALLEL = true;
+		try {
+			build(project, Result.SUCCESS, commitFile2);
+		} finally {
+			AlternativeBuildChooser.PARALLEL = false;
+		}
+	}
+
+	public void testResolveOnNode() throws Exception {
+		initRepo();
+		git.tag("tag-exist", "Tag on commit number 2");
+		ObjectId master = git.revParse("master");
+		ObjectId exist = git.revParse("branch-exist");
+
+		AlternativeBuildChooser.RESOLVE_ON_NODE = true;
+		try {
+			assertChoice(exist, "branch-doesnotexist", "branch-exist", "master");
+			assertChoice(master, "deadbeef", master.name().substring(0, 10), "branch-exist");
+			assertChoice(exist, "tag-doesnotexist", "tag-exist", "master");
+		} finally {
+			AlternativeBuildChooser.RESOLVE_ON_NODE = false;
+		}
+	}
+
+	public void testNarrowFetch() throws Exception {
+		FreeStyleProject project = setupProject(Arrays.asList(
+			new BranchSpec("branch-doesnotexist"),
+			new BranchSpec("branch-exist")
+		));
+		((GitSCM)project.getScm()).getExtensions().add(new NarrowFetch());
+
+		initRepo();
+		build(project, Result.SUCCESS, commitFile2);
+
+		git.checkout("master", "branch-unlisted");
+		commit(commitFile3, johnDoe, "Commit number 3");
+		FreeStyleBuild build = build(project, Result.SUCCESS);
+		assertLogContains("Fetching only [+refs/heads/branch-exist:refs/remotes/origin/branch-exist]", build);
+		assertNotNull(resolve(build, "refs/remotes/origin/branch-exist"));
+		assertNull("branch the list can't choose", resolve(build, "refs/remotes/origin/branch-unlisted"));
+	}
+
 	public void testAlternativeVar() throws Exception {
 		hudson.getNodeProperties().replaceBy(Collections.singleton(
 			new EnvironmentVariablesNodeProperty(
@@ -69,6 +162,133 @@ public class AlternativeBuildChooserTest extends AbstractGitTestCase {
 		build(project, Result.SUCCESS, commitFile2);
 	}
 
+	public void testIncrementalPolling() throws Exception {
+		FreeStyleProject project = setupProject(Arrays.asList(
+			new BranchSpec("branch-new"),
+			new BranchSpec("branch-*"),
+			new BranchSpec("master")
+		));
+		((AlternativeBuildChooser)((GitSCM)project.getScm()).getBuildChooser()).setIncrementalPolling(true);
+
+		initRepo();
+		build(project, Result.SUCCESS, commitFile2);
+		assertFalse("unchanged branch-exist", project.poll(listener).hasChanges());
+
+		git.checkout("master", "branch-new");
+		commit(commitFile3, johnDoe, "Commit number 3");
+		assertTrue("new earlier alternative", project.poll(listener).hasChanges());
+		build(project, Result.SUCCESS, commitFile3);
+	}
+
+	public void testMetrics() throws Exception {
+		FreeStyleProject project = setupProject(Arrays.asList(
+			new BranchSpec("branch-doesnotexist"),
+			new BranchSpec("branch-exist")
+		));
+
+		initRepo();
+		build(project, Result.SUCCESS, commitFile2);
+		ChooserMetrics metrics = ChooserMetrics.get();
+		long calls = metrics.getTotal().getCount();
+		long matched = metrics.getMatchedSpec().getCount();
+		long cached = metrics.getCacheHits() + metrics.getCacheMisses();
+		assertFalse("unchanged branch-exist", project.poll(listener).hasChanges());
+		assertEquals("calls", calls + 1, metrics.getTotal().getCount());
+		assertEquals("matched", matched + 1, metrics.getMatchedSpec().getCount());
+		assertEquals("cache lookups", cached + 1, metrics.getCacheHits() + metrics.getCacheMisses());
+
+		String json = createWebClient().goTo("alternative-chooser/api/json", "application/json")
+			.getWebResponse().getContentAsString();
+		assertTrue(json, json.contains("\"total\":{\"count\":" + (calls + 1) + ","));
+	}
+
+	public void testAllCandidatesBuilt() throws Exception {
+		FreeStyleProject project = setupProject(Arrays.asList(
+			new BranchSpec("branch-exist"),
+			new BranchSpec("master")
+		));
+		((AlternativeBuildChooser)((GitSCM)project.getScm()).getBuildChooser()).setMaxCandidates(-1);
+
+		initRepo();
+		build(project, Result.SUCCESS, commitFile2);
+		FreeStyleBuild last = build(project, Result.SUCCESS, commitFile1);
+		waitUntilNoActivityUpTo(60000);
+		assertEquals("no build to catch up once all candidates are built",
+			last.getNumber(), project.getLastBuild().getNumber());
+	}
+
+	public void testEventDrivenMaxAge() throws Exception {
+		FreeStyleProject project = setupProject(Arrays.asList(
+			new BranchSpec("branch-new"),
+			new BranchSpec("branch-*"),
+			new BranchSpec("master")
+		));
+		((AlternativeBuildChooser)((GitSCM)project.getScm()).getBuildChooser()).setEventDriven(true);
+
+		initRepo();
+		build(project, Result.SUCCESS, commitFile2);
+
+		// a push notification for a later alternative only, so only the age
+		// drops the choice
+		git.checkout("master", "branch-new");
+		commit(commitFile3, johnDoe, "Commit number 3");
+		URIish url = new URIish(((GitSCM)project.getScm()).getUserRemoteConfigs().get(0).getUrl());
+		Jenkins.getInstance().getExtensionList(GitStatus.Listener.class)
+			.get(RefUpdateLog.NotifyCommitListener.class).onNotifyCommit(url, "master");
+		assertFalse("the notified branch can't change the choice", project.poll(listener).hasChanges());
+
+		long maxAge = EventView.MAX_AGE;
+		EventView.MAX_AGE = 2000;
+		try {
+			boolean changes = false;
+			long end = System.currentTimeMillis() + 4 * EventView.MAX_AGE;
+			while (!changes && System.currentTimeMillis() < end) {
+				changes = project.poll(listener).hasChanges();
+				Thread.sleep(EventView.MAX_AGE / 4);
+			}
+			assertTrue("polls that reuse the choice don't extend its age", changes);
+		} finally {
+			EventView.MAX_AGE = maxAge;
+		}
+	}
+
+	public void testSkipContained() throws Exception {
+		FreeStyleProject project = setupProject(Arrays.asList(
+			new BranchSpec("branch-new"),
+			new BranchSpec("branch-exist"),
+			new BranchSpec("master")
+		));
+		((GitSCM)project.getScm()).getExtensions().add(new PruneStaleBranch());
+		AlternativeBuildChooser chooser = (AlternativeBuildChooser)((GitSCM)project.getScm()).getBuildChooser();
+		chooser.setSkipContained(true);
+
+		initRepo();
+		String commit2 = git.revParse("branch-exist").name();
+		commit(commitFile3, janeDoe, "Commit number 3");
+		build(project, Result.SUCCESS, commitFile3);
+		git.checkout("master", "branch-new");
+		commit(commitFile4, johnDoe, "Commit number 4");
+		build(project, Result.SUCCESS, commitFile4);
+
+		// branch-exist goes back to an ancestor of its built head
+		git.checkout("master");
+		git.deleteBranch("branch-new");
+		git.deleteBranch("branch-exist");
+		git.checkout(commit2, "branch-exist");
+		assertFalse("contained in a built commit", project.poll(listener).hasChanges());
+		chooser.setSkipContained(false);
+		assertTrue("not the last built commit", project.poll(listener).hasChanges());
+	}
+
+	public void testReferencedVariables() throws Exception {
+		Set<String> names = AlternativeBuildChooser.getReferencedVariables(Arrays.asList(
+			new BranchSpec("branch-${VAR_BRANCH}"),
+			new BranchSpec("$OTHER/master"),
+			new BranchSpec("master")
+		));
+		assertEquals(new HashSet<String>(Arrays.asList("VAR_BRANCH", "OTHER")), names);
+	}
+
 	protected FreeStyleProject setupProject(List<BranchSpec> specs) throws Exception {
 		FreeStyleProject project = setupProject(specs, false, null, null, null, null, false, null);
 		assertNotNull("could not init project", project);
@@ -79,6 +299,27 @@ public class AlternativeBuildChooserTest extends AbstractGitTestCase {
 		return project;
 	}
 
+	/**
+	 * Builds a new project with the specs and checks the commit it built.
+	 */
+	protected void assertChoice(ObjectId expected, String... specs) throws Exception {
+		List<BranchSpec> branches = new ArrayList<BranchSpec>();
+		for (String spec : specs) branches.add(new BranchSpec(spec));
+		FreeStyleBuild build = build(setupProject(branches), Result.SUCCESS);
+		assertEquals(Arrays.toString(specs), expected, build.getAction(BuildData.class).getLastBuiltRevision().getSha1());
+	}
+
+	/**
+	 * Resolves a ref in the workspace of the build, null if there is none.
+	 */
+	protected ObjectId resolve(FreeStyleBuild build, final String ref) throws Exception {
+		return build.getWorkspace().act(new FilePath.FileCallable<ObjectId>() {
+			public ObjectId invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+				return Git.with(null, null).in(f).getClient().getRepository().resolve(ref);
+			}
+		});
+	}
+
 	protected void initRepo() throws Exception {
 		commit(commitFile1, johnDoe, "Commit number 1");
 		git.checkout("HEAD", "branch-exist");
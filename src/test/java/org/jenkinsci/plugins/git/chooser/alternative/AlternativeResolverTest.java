@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import java.util.*;
+
+import hudson.plugins.git.Branch;
+import hudson.plugins.git.Revision;
+
+import junit.framework.TestCase;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Check that the multi-candidate mode keeps the order of the list and
+ * merges specs that resolve to the same commit.
+ */
+public class AlternativeResolverTest extends TestCase {
+	private static final ObjectId A = ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+	private static final ObjectId B = ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+
+	private final List<SpecMatcher> specs = Arrays.asList(
+		new SpecMatcher("origin/doesnotexist"),
+		new SpecMatcher("origin/release-*"),
+		new SpecMatcher("upstream/master"),
+		new SpecMatcher("origin/master")
+	);
+
+	private RefIndex refs() {
+		return new RefIndex(null, Arrays.asList(
+			new Branch("origin/master", A),
+			new Branch("origin/release-1.0", B),
+			new Branch("upstream/master", A)
+		), Collections.<String>emptySet());
+	}
+
+	public void testAll() throws Exception {
+		List<Revision> all = new AlternativeResolver(Diagnostics.OFF).findAll(specs, refs(), -1);
+		assertEquals(2, all.size());
+		assertEquals(B, all.get(0).getSha1());
+		assertEquals(A, all.get(1).getSha1());
+		assertTrue(all.get(1).containsBranchName("upstream/master"));
+		assertTrue(all.get(1).containsBranchName("origin/master"));
+		assertEquals(2, all.get(1).getBranches().size());
+	}
+
+	public void testFirstN() throws Exception {
+		List<Revision> first = new AlternativeResolver(Diagnostics.OFF).findAll(specs, refs(), 1);
+		assertEquals(1, first.size());
+		assertEquals(B, first.get(0).getSha1());
+	}
+
+	public void testIncrementalRanksWildcardAgain() throws Exception {
+		ObjectId c = ObjectId.fromString("cccccccccccccccccccccccccccccccccccccccc");
+		RefIndex refs = new RefIndex(null, Arrays.asList(
+			new Branch("origin/master", A),
+			new Branch("origin/release-1.0", B),
+			new Branch("origin/release-1.10", c)
+		), Collections.<String>emptySet());
+		Revision lastBuilt = new Revision(B);
+		lastBuilt.getBranches().add(new Branch("origin/release-1.0", B));
+		Revision r = new AlternativeResolver(Diagnostics.OFF, WildcardPolicy.HIGHEST_VERSION).findIncremental(specs, refs, lastBuilt);
+		assertEquals(c, r.getSha1());
+		assertTrue(r.containsBranchName("origin/release-1.10"));
+	}
+}
@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Check that the trace is formatted lazily into the ring buffer, and that
+ * a disabled trace records nothing.
+ */
+public class DiagnosticsTest extends TestCase {
+	public void testBuffer() {
+		Diagnostics diag = new Diagnostics(null, true, true);
+		assertTrue(diag.isEnabled());
+		assertFalse("no listener to log to", diag.isLogging());
+		diag.trace("Checking branch spec: {0}", "marker-spec");
+		diag.trace("spec {0} of {1}", 3, "marker-list");
+
+		List<String> lines = Diagnostics.getBuffer();
+		assertTrue(lines.size() >= 2);
+		assertTrue(lines.get(lines.size() - 2).endsWith("Checking branch spec: marker-spec"));
+		assertTrue(lines.get(lines.size() - 1).endsWith("spec 3 of marker-list"));
+	}
+
+	public void testOff() {
+		int before = Diagnostics.getBuffer().size();
+		assertFalse(Diagnostics.OFF.isEnabled());
+		Diagnostics.OFF.trace("Checking branch spec: {0}", "off-spec");
+		List<String> lines = Diagnostics.getBuffer();
+		assertEquals(before, lines.size());
+		for (String line : lines) {
+			assertFalse(line.contains("off-spec"));
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.Revision;
+import hudson.plugins.git.UserRemoteConfig;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Check that a recorded choice survives updates of branches it doesn't
+ * depend on, and only those.
+ */
+public class EventViewTest extends TestCase {
+	private static final String URL = "https://example.com/org/event-view-test.git";
+
+	private final List<String> names = Arrays.asList("feature-*", "develop", "master");
+	private final List<UserRemoteConfig> remotes = Collections.singletonList(new UserRemoteConfig(URL, "origin", "", null));
+	private List<SpecMatcher> specs;
+	private EventView view;
+
+	@Override
+	protected void setUp() {
+		specs = new ArrayList<SpecMatcher>();
+		for (String name : names) specs.add(new SpecMatcher(name));
+		view = new EventView();
+		RefUpdateLog.record(URL, "master");
+		Revision r = new Revision(ObjectId.fromString("0123456789012345678901234567890123456789"));
+		view.update(names, r, 1, RefUpdateLog.getGeneration());
+	}
+
+	public void testNormalize() {
+		assertEquals(RefUpdateLog.normalize("git@EXAMPLE.com:org/repo.git"),
+		             RefUpdateLog.normalize("ssh://git@example.com/org/repo"));
+		assertEquals(RefUpdateLog.normalize("https://example.com/org/repo.git"),
+		             RefUpdateLog.normalize("https://example.com/org/repo/"));
+	}
+
+	public void testNoUpdates() {
+		assertTrue(view.isCurrent(names, specs, remotes, Diagnostics.OFF));
+		assertNotNull(view.getRevision());
+	}
+
+	public void testNeverNotified() {
+		List<UserRemoteConfig> other = Collections.singletonList(
+			new UserRemoteConfig("https://example.com/org/never-notified.git", "origin", "", null));
+		assertFalse(view.isCurrent(names, specs, other, Diagnostics.OFF));
+	}
+
+	public void testUnrelatedUpdate() {
+		RefUpdateLog.record(URL, "master");
+		RefUpdateLog.record("https://example.com/org/other.git", "develop");
+		assertTrue(view.isCurrent(names, specs, remotes, Diagnostics.OFF));
+	}
+
+	public void testRelatedUpdate() {
+		RefUpdateLog.record(URL.replace(".git", ""), "feature-x");
+		assertFalse(view.isCurrent(names, specs, remotes, Diagnostics.OFF));
+	}
+
+	public void testUnknownUpdate() {
+		RefUpdateLog.record(URL);
+		assertFalse(view.isCurrent(names, specs, remotes, Diagnostics.OFF));
+	}
+
+	public void testChangedSpecs() {
+		List<String> other = Arrays.asList("develop", "master");
+		assertFalse(view.isCurrent(other, specs.subList(1, 3), remotes, Diagnostics.OFF));
+	}
+}
@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+import org.eclipse.jgit.transport.RefSpec;
+
+/**
+ * Check the refspecs derived from an alternative list.
+ */
+public class NarrowFetchTest extends TestCase {
+	private final Set<String> heads = new HashSet<String>(Arrays.asList(
+		"refs/heads/master", "refs/heads/develop", "refs/heads/release/2.4"));
+
+	private static List<SpecMatcher> specs(String... names) {
+		List<SpecMatcher> specs = new ArrayList<SpecMatcher>();
+		for (String name : names) specs.add(new SpecMatcher(name));
+		return specs;
+	}
+
+	public void testNarrowed() {
+		List<RefSpec> refspecs = NarrowFetch.getRefSpecs(
+			specs("origin/release/2.*", "upstream/other", "missing", "develop", "origin/master"), "origin", heads);
+		assertEquals(Arrays.asList(
+			new RefSpec("+refs/heads/develop:refs/remotes/origin/develop"),
+			new RefSpec("+refs/heads/master:refs/remotes/origin/master"),
+			new RefSpec("+refs/heads/release/*:refs/remotes/origin/release/*")
+		), refspecs);
+	}
+
+	public void testEverything() {
+		assertNull(NarrowFetch.getRefSpecs(specs("develop", "feature-*"), "origin", heads));
+		assertNull(NarrowFetch.getRefSpecs(specs("**"), "origin", heads));
+		assertNull("nothing to fetch", NarrowFetch.getRefSpecs(specs("missing"), "origin", heads));
+	}
+
+	public void testNamesBranch() {
+		assertTrue(NarrowFetch.namesBranch(specs("origin/release/2.*", "develop"), "origin"));
+		assertFalse(NarrowFetch.namesBranch(specs("origin/release/2.*", "upstream/other"), "origin"));
+	}
+}
@@ -0,0 +1,157 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.Branch;
+import hudson.plugins.git.GitException;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Check that concurrent calls needing the same part of a snapshot share
+ * one listing, that a failed listing is retried, that scoped snapshots
+ * live inside the full one and come from it, and that a stored snapshot
+ * reads back only for its own ref state and scope.
+ */
+public class RefSnapshotTest extends TestCase {
+	public void testSingleFlight() throws Exception {
+		final RefSnapshot snapshot = new RefSnapshot();
+		final AtomicInteger listings = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<RefTable> loader = new Callable<RefTable>() {
+			public RefTable call() throws InterruptedException {
+				listings.incrementAndGet();
+				release.await();
+				return RefTable.EMPTY;
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<RefTable>> results = new ArrayList<Future<RefTable>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(pool.submit(new Callable<RefTable>() {
+					public RefTable call() throws Exception {
+						return snapshot.loadBranches(loader);
+					}
+				}));
+			}
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<RefTable> result : results) {
+				assertNotNull(result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(1, listings.get());
+	}
+
+	public void testRetryAfterFailure() throws Exception {
+		RefSnapshot snapshot = new RefSnapshot();
+		try {
+			snapshot.loadTags(new Callable<Set<String>>() {
+				public Set<String> call() {
+					throw new GitException("listing failed");
+				}
+			});
+			fail();
+		} catch (GitException x) {
+			// expected
+		}
+		assertNull(snapshot.getTags());
+		Set<String> tags = snapshot.loadTags(new Callable<Set<String>>() {
+			public Set<String> call() {
+				return Collections.singleton("v1.0");
+			}
+		});
+		assertEquals(Collections.singleton("v1.0"), tags);
+		assertSame(tags, snapshot.getTags());
+	}
+
+	public void testScopesShareEntry() throws Exception {
+		int maxSize = RefSnapshotCache.MAX_SIZE;
+		RefSnapshotCache.MAX_SIZE = RefSnapshotCache.STRIPES;
+		RefSnapshotCache.clear();
+		try {
+			String urls = "origin=https://example.com/scoped.git";
+			RefSnapshot full = RefSnapshotCache.get(urls, "fp1", new CallStats());
+			List<RefSnapshot> scoped = new ArrayList<RefSnapshot>();
+			for (String query : Arrays.asList("origin/master", "origin/develop", "origin/release-")) {
+				scoped.add(RefSnapshotCache.get(urls, "fp1", new TreeSet<String>(Collections.singleton(query)), new CallStats()));
+			}
+			assertSame("scoped snapshots don't evict the full one", full, RefSnapshotCache.get(urls, "fp1", new CallStats()));
+			assertNotSame(full, scoped.get(0));
+			assertSame(scoped.get(0), RefSnapshotCache.get(urls, "fp1", new TreeSet<String>(Collections.singleton("origin/master")), new CallStats()));
+		} finally {
+			RefSnapshotCache.MAX_SIZE = maxSize;
+			RefSnapshotCache.clear();
+		}
+	}
+
+	public void testStore() throws Exception {
+		RefSnapshot snapshot = new RefSnapshot("https://example.com/repo.git", "fp1");
+		snapshot.setBranches(RefTable.of(Arrays.asList(
+			new Branch("origin/master", ObjectId.fromString("0123456789012345678901234567890123456789")),
+			new Branch("origin/develop", ObjectId.fromString("9876543210987654321098765432109876543210"))
+		)));
+		assertTrue(snapshot.needsStoring());
+
+		File file = File.createTempFile("snapshot", ".refs");
+		try {
+			assertFalse("no tags listed", RefSnapshotStore.write(file, snapshot));
+			assertNull("other ref state", RefSnapshotStore.read(file, "https://example.com/repo.git", "fp2", null));
+
+			RefSnapshot read = RefSnapshotStore.read(file, "https://example.com/repo.git", "fp1", null);
+			assertNotNull(read);
+			assertEquals(2, read.getBranches().size());
+			assertEquals(snapshot.getBranches().getBranch("origin/master").getSHA1(),
+				read.getBranches().getBranch("origin/master").getSHA1());
+			RefTable.Cursor c = read.getBranches().byShortName("");
+			assertTrue(c.next());
+			assertEquals("develop", c.toString());
+			assertNull(read.getTags());
+
+			read.setTags(Collections.singleton("v1.0"));
+			assertTrue("tags now known", read.needsStoring());
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testStoreScoped() throws Exception {
+		SortedSet<String> scope = new TreeSet<String>(Collections.singleton("origin/master"));
+		RefSnapshot snapshot = new RefSnapshot("https://example.com/repo.git", "fp1", scope);
+		snapshot.setBranches(RefTable.of(Collections.singletonList(
+			new Branch("origin/master", ObjectId.fromString("0123456789012345678901234567890123456789"))
+		)));
+		assertTrue(snapshot.needsStoring());
+
+		File file = File.createTempFile("snapshot", ".refs");
+		try {
+			RefSnapshotStore.write(file, snapshot);
+			assertNull("not a full snapshot", RefSnapshotStore.read(file, "https://example.com/repo.git", "fp1", null));
+			RefSnapshot read = RefSnapshotStore.read(file, "https://example.com/repo.git", "fp1", scope);
+			assertNotNull(read);
+			assertEquals(scope, read.scope);
+			assertEquals(1, read.getBranches().size());
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testScopedFromFull() throws Exception {
+		RefSnapshot full = new RefSnapshot("https://example.com/repo.git", "fp1");
+		full.setBranches(RefTable.of(Arrays.asList(
+			new Branch("origin/master", ObjectId.fromString("0123456789012345678901234567890123456789")),
+			new Branch("origin/develop", ObjectId.fromString("9876543210987654321098765432109876543210"))
+		)));
+		RefSnapshot scoped = full.getScoped(new TreeSet<String>(Collections.singleton("origin/develop")));
+		assertEquals(1, scoped.getBranches().size());
+		assertNotNull(scoped.getBranches().getBranch("origin/develop"));
+		assertFalse("the full snapshot holds it", scoped.needsStoring());
+	}
+}
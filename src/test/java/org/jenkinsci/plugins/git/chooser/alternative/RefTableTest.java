@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import hudson.plugins.git.Branch;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Check the lookups of the compact branch table against the names and
+ * SHA1s it was built from.
+ */
+public class RefTableTest extends TestCase {
+	private static final String[] NAMES = {
+		"upstream/master", "origin/release/2.10", "origin/master", "origin/release/2.9",
+		"origin/master-2", "upstream/release/2.9", "origin/master",
+	};
+
+	private RefTable table;
+
+	@Override
+	protected void setUp() {
+		List<Branch> branches = new ArrayList<Branch>();
+		for (int i = 0; i < NAMES.length; i++) {
+			branches.add(new Branch(NAMES[i], ObjectId.fromString(sha1(i))));
+		}
+		table = RefTable.of(branches);
+	}
+
+	public void testSortedWithoutDuplicates() {
+		assertEquals(6, table.size());
+		for (int i = 1; i < table.size(); i++) {
+			assertTrue(table.getName(i - 1).compareTo(table.getName(i)) < 0);
+		}
+		assertEquals("first one added", ObjectId.fromString(sha1(2)), table.getBranch("origin/master").getSHA1());
+		assertNull(table.getBranch("origin/maste"));
+		assertNull(table.getBranch("origin/release/"));
+	}
+
+	public void testPrefixes() {
+		assertEquals(Arrays.asList("origin/release/2.10", "origin/release/2.9"), names(table.byName("origin/release/")));
+		assertEquals(Arrays.asList("origin/master", "origin/master-2"), names(table.byName("origin/master")));
+		assertEquals(Collections.emptyList(), names(table.byName("zzz")));
+		assertEquals(6, names(table.byName("")).size());
+	}
+
+	public void testFilter() {
+		RefTable filtered = table.filter(Arrays.asList("origin/master", "origin/release/", "upstream/"));
+		assertEquals(5, filtered.size());
+		assertEquals(ObjectId.fromString(sha1(2)), filtered.getBranch("origin/master").getSHA1());
+		assertNull("exact name only", filtered.getBranch("origin/master-2"));
+		assertNotNull(filtered.getBranch("origin/release/2.9"));
+		assertNotNull(filtered.getBranch("upstream/release/2.9"));
+	}
+
+	public void testShortNames() {
+		assertEquals(Arrays.asList("master", "master-2", "release/2.10", "release/2.9"), names(table.byShortName("")));
+		assertEquals("origin/release/2.9", table.getBranchOnAnyRemote("release/2.9").getName());
+		assertEquals("origin/master", table.getBranchOnAnyRemote("master").getName());
+		assertNull(table.getBranchOnAnyRemote("release"));
+	}
+
+	public void testAbbreviated() {
+		assertEquals(ObjectId.fromString(sha1(4)), table.findAbbreviated(sha1(4).substring(0, 7)));
+		assertNull(table.findAbbreviated("ffffff"));
+	}
+
+	private static List<String> names(RefTable.Cursor c) {
+		List<String> names = new ArrayList<String>();
+		while (c.next()) names.add(c.toString());
+		return names;
+	}
+
+	private static String sha1(int i) {
+		StringBuilder b = new StringBuilder();
+		while (b.length() < 40) b.append(Integer.toHexString(i + 1)).append("0123456");
+		return b.substring(0, 40);
+	}
+}
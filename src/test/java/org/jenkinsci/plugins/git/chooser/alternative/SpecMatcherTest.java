@@ -0,0 +1,143 @@
+package org.jenkinsci.plugins.git.chooser.alternative;
+
+import java.util.*;
+
+import hudson.plugins.git.Branch;
+import hudson.plugins.git.BranchSpec;
+
+import junit.framework.TestCase;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Check that the compiled spec matcher picks the same branches as
+ * {@link BranchSpec#filterMatchingBranches}, taking the branches in name
+ * order.
+ */
+public class SpecMatcherTest extends TestCase {
+	final String[] branchNames = {
+		"origin/master",
+		"origin/develop",
+		"origin/release-1.0",
+		"origin/release-2.0",
+		"origin/release/2.4",
+		"origin/release/2.4/hotfix",
+		"origin/feature/foo",
+		"upstream/master",
+		"upstream/release-3.0",
+	};
+
+	final String[] specNames = {
+		"master",
+		"develop",
+		"origin/master",
+		"upstream/master",
+		"doesnotexist",
+		"release-*",
+		"origin/release-*",
+		"upstream/release-*",
+		"*/release/*",
+		"origin/release/**",
+		"**/hotfix",
+		"feature/*",
+		"*/feature/*",
+		"**",
+	};
+
+	public void testSameAsBranchSpec() throws Exception {
+		List<Branch> branches = new ArrayList<Branch>();
+		for (int i = 0; i < branchNames.length; i++) {
+			branches.add(new Branch(branchNames[i], ObjectId.fromString(sha1(i))));
+		}
+		Collections.sort(branches, new Comparator<Branch>() {
+			public int compare(Branch a, Branch b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		RefIndex refs = new RefIndex(null, branches, Collections.<String>emptySet());
+
+		for (String name : specNames) {
+			List<Branch> expected = new BranchSpec(name).filterMatchingBranches(branches);
+			Branch actual = new SpecMatcher(name).findBranch(refs);
+			if (expected.isEmpty()) {
+				assertNull(name, actual);
+			} else {
+				assertNotNull(name, actual);
+				assertEquals(name, expected.get(0).getName(), actual.getName());
+			}
+		}
+	}
+
+	public void testClassification() {
+		assertTrue(new SpecMatcher("abcdef0").isSha1());
+		assertFalse(new SpecMatcher("abcde").isSha1());
+		assertTrue(new SpecMatcher("v1.0").isTag());
+		assertFalse(new SpecMatcher("origin/v1.0").isTag());
+		assertFalse(new SpecMatcher("v1.*").isTag());
+	}
+
+	public void testWildcardPolicy() throws Exception {
+		List<Branch> branches = new ArrayList<Branch>();
+		String[] names = { "origin/release-1.9", "origin/release-1.10", "origin/release-1.2", "origin/master" };
+		for (int i = 0; i < names.length; i++) {
+			branches.add(new Branch(names[i], ObjectId.fromString(sha1(i))));
+		}
+		RefIndex refs = new RefIndex(null, branches, Collections.<String>emptySet());
+		SpecMatcher spec = new SpecMatcher("release-*");
+		assertEquals("origin/release-1.10", spec.findBranch(refs, WildcardPolicy.FIRST).getName());
+		assertEquals("origin/release-1.9", spec.findBranch(refs, WildcardPolicy.LAST).getName());
+		assertEquals("origin/release-1.10", spec.findBranch(refs, WildcardPolicy.HIGHEST_VERSION).getName());
+		assertEquals("origin/master", new SpecMatcher("master").findBranch(refs, WildcardPolicy.LAST).getName());
+	}
+
+	public void testMostRecentCommitRemembered() throws Exception {
+		List<Branch> branches = new ArrayList<Branch>();
+		String[] names = { "origin/release-1.9", "origin/release-1.10", "origin/release-1.2", "origin/master" };
+		for (int i = 0; i < names.length; i++) {
+			branches.add(new Branch(names[i], ObjectId.fromString(sha1(i))));
+		}
+		// there is no repository to read commits from
+		RefIndex refs = new RefIndex(null, branches, Collections.<String>emptySet());
+		RefTable.Cursor c = refs.getBranches().byName("origin/release-1.2");
+		assertTrue(c.next());
+		refs.getSnapshot().putNewest("release-*", c.index());
+		assertEquals("origin/release-1.2", new SpecMatcher("release-*").findBranch(refs, WildcardPolicy.MOST_RECENT_COMMIT).getName());
+		assertEquals("origin/master", new SpecMatcher("mast*").findBranch(refs, WildcardPolicy.MOST_RECENT_COMMIT).getName());
+		assertNull(new SpecMatcher("hotfix-*").findBranch(refs, WildcardPolicy.MOST_RECENT_COMMIT));
+	}
+
+	public void testCompareVersions() {
+		assertTrue(WildcardPolicy.compareVersions("release-1.10", "release-1.9") > 0);
+		assertTrue(WildcardPolicy.compareVersions("release-2.0", "release-10.0") < 0);
+		assertTrue(WildcardPolicy.compareVersions("release-1.02", "release-1.2") == 0);
+		assertTrue(WildcardPolicy.compareVersions("release-1.2.1", "release-1.2") > 0);
+		assertTrue(WildcardPolicy.compareVersions("release-b", "release-a") > 0);
+	}
+
+	public void testBranchQueries() {
+		List<SpecMatcher> specs = new ArrayList<SpecMatcher>();
+		for (String name : new String[] { "origin/release/2.*", "origin/release/2.4/hotfix", "master", "feature-*" }) {
+			specs.add(new SpecMatcher(name));
+		}
+		assertEquals(new TreeSet<String>(Arrays.asList("origin/master", "origin/release/", "upstream/master")),
+			SpecMatcher.getBranchQueries(specs.subList(0, 3), Arrays.asList("origin", "upstream")));
+		assertEquals(new TreeSet<String>(Arrays.asList("origin/")),
+			SpecMatcher.getBranchQueries(specs, Collections.singletonList("origin")));
+		assertTrue(SpecMatcher.getBranchQueries(Arrays.asList(new SpecMatcher("**/hotfix")),
+			Collections.singletonList("origin")).contains(""));
+	}
+
+	public void testScopedSnapshot() throws Exception {
+		SortedSet<String> scope = new TreeSet<String>(Arrays.asList("origin/master", "origin/release/"));
+		assertTrue(RefDatabaseListing.matches(scope, "origin/release/2.4"));
+		assertTrue(RefDatabaseListing.matches(scope, "origin/master"));
+		assertFalse(RefDatabaseListing.matches(scope, "origin/master-2"));
+		assertFalse(RefDatabaseListing.matches(scope, "origin/develop"));
+	}
+
+	private static String sha1(int i) {
+		String s = Integer.toHexString(i + 1);
+		StringBuilder b = new StringBuilder();
+		while (b.length() + s.length() < 40) b.append('0');
+		return b.append(s).toString();
+	}
+}